@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) Terl Tech Ltd  • 04/04/2021, 00:07 • goterl.com
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v2.0. If a copy of the MPL was not distributed with this
+ * file, you can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package com.goterl.resourceloader.benchmarks;
+
+import com.goterl.resourceloader.FileLoader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Many threads loading from the same JAR at once. Change the
+ * number of threads with JMH's {@code -t} option.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Threads(8)
+public class ConcurrentLoadBenchmark {
+
+    @Param({"1000"})
+    public int entryCount;
+
+    @Param({"4096"})
+    public int entrySize;
+
+    @Param({"DEFLATED", "STORED"})
+    public String method;
+
+    private Path fixtureDir;
+    private Class<?> marker;
+    private final Fixtures.TempDirectories temp = new Fixtures.TempDirectories();
+
+    @Setup(Level.Trial)
+    public void writeFixture() throws Exception {
+        fixtureDir = Files.createTempDirectory("resource-loader-bench");
+        Path jar = Fixtures.write(fixtureDir, 1, entryCount, entrySize, Fixtures.method(method));
+        marker = Fixtures.loadMarker(jar);
+    }
+
+    @TearDown(Level.Iteration)
+    public void deleteCopies() throws Exception {
+        temp.deleteAll();
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteFixture() throws Exception {
+        Fixtures.delete(fixtureDir);
+    }
+
+    /**
+     * Every thread copies a different file.
+     */
+    @Benchmark
+    public File copyDifferentFiles() throws Exception {
+        String path = Fixtures.entryName(ThreadLocalRandom.current().nextInt(entryCount));
+        return temp.track(FileLoader.get().copyToTempDirectory(path, marker));
+    }
+
+    /**
+     * Every thread loads the same file, which is only extracted once.
+     */
+    @Benchmark
+    public File loadSameFile() throws Exception {
+        return FileLoader.get().load(Fixtures.entryName(0), marker);
+    }
+}
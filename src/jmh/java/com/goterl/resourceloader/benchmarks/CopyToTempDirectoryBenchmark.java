@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) Terl Tech Ltd  • 04/04/2021, 00:07 • goterl.com
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v2.0. If a copy of the MPL was not distributed with this
+ * file, you can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package com.goterl.resourceloader.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How long {@code copyToTempDirectory} takes to copy a single file and a
+ * whole directory out of a classpath directory, a JAR, and JARs nested
+ * two and three deep.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class CopyToTempDirectoryBenchmark {
+
+    @Param({"directory", "jar", "nested2", "nested3"})
+    public String location;
+
+    @Param({"100", "2000"})
+    public int entryCount;
+
+    @Param({"1024", "65536"})
+    public int entrySize;
+
+    @Param({"DEFLATED", "STORED"})
+    public String method;
+
+    private Path fixtureDir;
+    private Fixtures.Copier copier;
+    private String prefix;
+    private int next;
+    private final Fixtures.TempDirectories temp = new Fixtures.TempDirectories();
+
+    @Setup(Level.Trial)
+    public void writeFixture() throws Exception {
+        int depth = Fixtures.depth(location);
+        fixtureDir = Files.createTempDirectory("resource-loader-bench");
+        Path fixture = Fixtures.write(fixtureDir, depth, entryCount, entrySize, Fixtures.method(method));
+        copier = Fixtures.copier(fixture);
+        prefix = Fixtures.prefix(depth);
+    }
+
+    @TearDown(Level.Iteration)
+    public void deleteCopies() throws Exception {
+        temp.deleteAll();
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteFixture() throws Exception {
+        Fixtures.delete(fixtureDir);
+    }
+
+    /**
+     * Copy one file, a different one each time.
+     */
+    @Benchmark
+    public File copyFile() throws Exception {
+        String path = prefix + Fixtures.entryName(next);
+        next = (next + 1) % entryCount;
+        return temp.track(copier.copy(path));
+    }
+
+    /**
+     * Copy every entry under {@code data/}.
+     */
+    @Benchmark
+    public File copyDirectory() throws Exception {
+        return temp.track(copier.copy(prefix + Fixtures.DATA));
+    }
+}
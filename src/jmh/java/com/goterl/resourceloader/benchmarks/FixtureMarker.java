@@ -0,0 +1,17 @@
+/*
+ * Copyright (c) Terl Tech Ltd  • 04/04/2021, 00:07 • goterl.com
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v2.0. If a copy of the MPL was not distributed with this
+ * file, you can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package com.goterl.resourceloader.benchmarks;
+
+/**
+ * Copied into every fixture so there is a class whose code
+ * source is the fixture. It must not depend on anything else,
+ * as it is loaded on its own from the fixture.
+ */
+public class FixtureMarker {
+}
@@ -0,0 +1,381 @@
+/*
+ * Copyright (c) Terl Tech Ltd  • 04/04/2021, 00:07 • goterl.com
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v2.0. If a copy of the MPL was not distributed with this
+ * file, you can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package com.goterl.resourceloader.benchmarks;
+
+import com.goterl.resourceloader.FileLoader;
+import com.goterl.resourceloader.ResourceLoader;
+import com.sun.jna.Platform;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+
+/**
+ * Builds the archives and directories the benchmarks load from.
+ * Everything is generated from a fixed seed, so the same parameters
+ * always give the same fixture and no files need to be downloaded.
+ */
+final class Fixtures {
+
+    static final String DATA = "data";
+
+    private static final String MARKER_ENTRY = FixtureMarker.class.getName().replace('.', '/') + ".class";
+    private static final String NESTED = "nested/level";
+
+    // Random picks from this compress about as well as text does.
+    private static final byte[] ALPHABET = "abcdefghijklmnopqrstuvwxyz0123456789 \n".getBytes(StandardCharsets.US_ASCII);
+
+    private Fixtures() {
+    }
+
+    /**
+     * Copies a resource into a temporary directory, the way
+     * {@link ResourceLoader#copyToTempDirectory(String, Class)} does.
+     */
+    interface Copier {
+        File copy(String relativePath) throws Exception;
+    }
+
+    /**
+     * @param i The entry's number.
+     * @return The path of the entry relative to the data directory's parent.
+     */
+    static String entryName(int i) {
+        return DATA + "/file-" + i + ".bin";
+    }
+
+    /**
+     * @param method {@code STORED} or {@code DEFLATED}.
+     * @return The matching {@link ZipEntry} method.
+     */
+    static int method(String method) {
+        switch (method) {
+            case "STORED":
+                return ZipEntry.STORED;
+            case "DEFLATED":
+                return ZipEntry.DEFLATED;
+            default:
+                throw new IllegalArgumentException("Unknown compression method " + method);
+        }
+    }
+
+    /**
+     * @param location {@code directory}, {@code jar}, {@code nested2} or {@code nested3}.
+     * @return How many archives deep the data is. 0 is a directory on the classpath.
+     */
+    static int depth(String location) {
+        switch (location) {
+            case "directory":
+                return 0;
+            case "jar":
+                return 1;
+            case "nested2":
+                return 2;
+            case "nested3":
+                return 3;
+            default:
+                throw new IllegalArgumentException("Unknown location " + location);
+        }
+    }
+
+    /**
+     * Write a fixture with {@code entryCount} entries of {@code entrySize}
+     * bytes under {@code data/}.
+     * @param dir Where to write the fixture.
+     * @param depth How many archives deep the data should be. 0 writes
+     *              a classpath directory, 1 a flat JAR and anything
+     *              more puts the data in JARs inside the JAR.
+     * @param entryCount How many entries to write.
+     * @param entrySize How big each entry is.
+     * @param method The compression method of every entry, nested JARs included.
+     * @return The directory or outermost JAR. Add it to a classpath to load
+     * {@link FixtureMarker} from it.
+     */
+    static Path write(Path dir, int depth, int entryCount, int entrySize, int method) throws IOException {
+        if (depth == 0) {
+            Path root = dir.resolve("classes");
+            writeMarker(root);
+            Random random = new Random(42);
+            for (int i = 0; i < entryCount; i++) {
+                Path file = root.resolve(entryName(i));
+                Files.createDirectories(file.getParent());
+                Files.write(file, contents(random, entrySize));
+            }
+            return root;
+        }
+
+        // Build from the inside out. Only the innermost JAR holds the data.
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        Random random = new Random(42);
+        for (int i = 0; i < entryCount; i++) {
+            entries.put(entryName(i), contents(random, entrySize));
+        }
+        for (int level = depth - 1; level > 0; level--) {
+            byte[] inner = jar(entries, method);
+            entries = new LinkedHashMap<>();
+            entries.put(NESTED + level + ".jar", inner);
+        }
+        Path jar = dir.resolve("fixture.jar");
+        Files.write(jar, jar(entries, method));
+        return jar;
+    }
+
+    /**
+     * @param depth How many archives deep the data is.
+     * @return What goes in front of {@link #entryName(int)} to reach the data.
+     */
+    static String prefix(int depth) {
+        StringBuilder prefix = new StringBuilder();
+        for (int level = 1; level < depth; level++) {
+            prefix.append(NESTED).append(level).append(".jar/");
+        }
+        return prefix.toString();
+    }
+
+    /**
+     * Write a JAR holding just one file.
+     */
+    static Path writeJar(Path jar, String name, byte[] contents, int method) throws IOException {
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        entries.put(name, contents);
+        Files.write(jar, jar(entries, method));
+        return jar;
+    }
+
+    /**
+     * Load {@link FixtureMarker} from the fixture rather than from the
+     * benchmark's own classpath. Every call gives a different class.
+     */
+    static Class<?> loadMarker(Path fixture) throws IOException, ClassNotFoundException {
+        URLClassLoader loader = new URLClassLoader(
+                new URL[]{fixture.toUri().toURL()},
+                ClassLoader.getPlatformClassLoader()
+        );
+        return loader.loadClass(FixtureMarker.class.getName());
+    }
+
+    /**
+     * @param fixture A fixture from {@link #write(Path, int, int, int, int)}.
+     * @return Something that copies resources out of the fixture.
+     */
+    static Copier copier(Path fixture) throws Exception {
+        if (Files.isRegularFile(fixture)) {
+            Class<?> marker = loadMarker(fixture);
+            FileLoader loader = FileLoader.get();
+            return relativePath -> loader.copyToTempDirectory(relativePath, marker);
+        }
+        return isolatedCopier(fixture);
+    }
+
+    /**
+     * Resources outside of JARs are looked up through ResourceLoader's
+     * own class loader, so a classpath directory only works with a copy
+     * of resource-loader that has the directory on its classpath.
+     */
+    private static Copier isolatedCopier(Path directory) throws Exception {
+        URL resourceLoader = ResourceLoader.class.getProtectionDomain().getCodeSource().getLocation();
+        URLClassLoader loader = new URLClassLoader(
+                new URL[]{directory.toUri().toURL(), resourceLoader},
+                new SharedDependencies()
+        );
+        Class<?> marker = loader.loadClass(FixtureMarker.class.getName());
+        Class<?> fileLoaderClass = loader.loadClass(FileLoader.class.getName());
+        Object fileLoader = fileLoaderClass.getMethod("get").invoke(null);
+        MethodHandle copy = MethodHandles.publicLookup()
+                .findVirtual(
+                        fileLoaderClass,
+                        "copyToTempDirectory",
+                        MethodType.methodType(File.class, String.class, Class.class)
+                )
+                .bindTo(fileLoader);
+        return relativePath -> {
+            try {
+                return (File) copy.invoke(relativePath, marker);
+            } catch (Exception | Error e) {
+                throw e;
+            } catch (Throwable t) {
+                throw new IllegalStateException(t);
+            }
+        };
+    }
+
+    /**
+     * Gives the isolated copy of resource-loader the same JNA and
+     * SLF4J as everything else, so JNA's native code is only loaded once.
+     */
+    private static final class SharedDependencies extends ClassLoader {
+        SharedDependencies() {
+            super(ClassLoader.getPlatformClassLoader());
+        }
+
+        @Override
+        protected Class<?> findClass(String name) throws ClassNotFoundException {
+            if (name.startsWith("com.sun.jna.") || name.startsWith("org.slf4j.")) {
+                return Fixtures.class.getClassLoader().loadClass(name);
+            }
+            throw new ClassNotFoundException(name);
+        }
+    }
+
+    /**
+     * @return JNA's own native library for this platform, which is a
+     * real shared library that is always there to load.
+     */
+    static byte[] nativeLibrary() throws IOException {
+        String dir = "/com/sun/jna/" + Platform.RESOURCE_PREFIX + "/";
+        String[] names = {System.mapLibraryName("jnidispatch"), "libjnidispatch.jnilib"};
+        for (String name : names) {
+            try (InputStream in = Platform.class.getResourceAsStream(dir + name)) {
+                if (in != null) {
+                    return in.readAllBytes();
+                }
+            }
+        }
+        throw new FileNotFoundException("JNA has no native library for " + Platform.RESOURCE_PREFIX);
+    }
+
+    /**
+     * @return The file name {@link #nativeLibrary()} should be given.
+     */
+    static String nativeLibraryName() {
+        return System.mapLibraryName("benchmark");
+    }
+
+    /**
+     * Temporary directories that the benchmarks made,
+     * so they can be cleaned up between iterations.
+     */
+    static final class TempDirectories {
+        private final Path tmp = Paths.get(System.getProperty("java.io.tmpdir")).toAbsolutePath();
+        private final Queue<Path> created = new ConcurrentLinkedQueue<>();
+
+        /**
+         * @param file Something that was copied into a temporary directory.
+         * @return The same file.
+         */
+        File track(File file) {
+            // Temporary directories are made inside one root for the
+            // whole process, so keep the root and delete the rest.
+            Path path = file.toPath().toAbsolutePath();
+            while (path.getParent() != null
+                    && path.getParent().getParent() != null
+                    && !path.getParent().getParent().equals(tmp)) {
+                path = path.getParent();
+            }
+            if (path.getParent() != null) {
+                created.add(path);
+            }
+            return file;
+        }
+
+        void deleteAll() throws IOException {
+            Path path;
+            while ((path = created.poll()) != null) {
+                delete(path);
+            }
+        }
+    }
+
+    static void delete(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return;
+        }
+        List<Path> paths;
+        try (Stream<Path> walk = Files.walk(path)) {
+            paths = walk.sorted(Comparator.reverseOrder()).collect(Collectors.toList());
+        }
+        for (Path p : paths) {
+            Files.deleteIfExists(p);
+        }
+    }
+
+    private static void writeMarker(Path root) throws IOException {
+        Path marker = root.resolve(MARKER_ENTRY);
+        Files.createDirectories(marker.getParent());
+        Files.write(marker, markerClass());
+    }
+
+    private static byte[] markerClass() throws IOException {
+        try (InputStream in = FixtureMarker.class.getResourceAsStream(FixtureMarker.class.getSimpleName() + ".class")) {
+            if (in == null) {
+                throw new FileNotFoundException(MARKER_ENTRY);
+            }
+            return in.readAllBytes();
+        }
+    }
+
+    private static byte[] contents(Random random, int size) {
+        byte[] bytes = new byte[size];
+        for (int i = 0; i < size; i++) {
+            bytes[i] = ALPHABET[random.nextInt(ALPHABET.length)];
+        }
+        return bytes;
+    }
+
+    /**
+     * Every JAR gets a manifest and the marker class,
+     * otherwise it wouldn't be treated as a JAR.
+     */
+    private static byte[] jar(Map<String, byte[]> entries, int method) throws IOException {
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+
+        Map<String, byte[]> all = new LinkedHashMap<>();
+        all.put(MARKER_ENTRY, markerClass());
+        all.putAll(entries);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (JarOutputStream out = new JarOutputStream(bytes, manifest)) {
+            for (Map.Entry<String, byte[]> e : all.entrySet()) {
+                putEntry(out, e.getKey(), e.getValue(), method);
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void putEntry(JarOutputStream out, String name, byte[] contents, int method) throws IOException {
+        ZipEntry entry = new ZipEntry(name);
+        entry.setMethod(method);
+        if (method == ZipEntry.STORED) {
+            CRC32 crc = new CRC32();
+            crc.update(contents);
+            entry.setSize(contents.length);
+            entry.setCompressedSize(contents.length);
+            entry.setCrc(crc.getValue());
+        }
+        out.putNextEntry(entry);
+        out.write(contents);
+        out.closeEntry();
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) Terl Tech Ltd  • 04/04/2021, 00:07 • goterl.com
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v2.0. If a copy of the MPL was not distributed with this
+ * file, you can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package com.goterl.resourceloader.benchmarks;
+
+import com.goterl.resourceloader.SharedLibraryLoader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How long {@link SharedLibraryLoader#load(String, Class)} takes the
+ * first time a library is loaded for a class, and every time after that.
+ * The library is JNA's own native library, put in a generated JAR.
+ */
+@State(Scope.Benchmark)
+public class SharedLibraryLoaderBenchmark {
+
+    private static final String LIBRARY = "lib/" + Fixtures.nativeLibraryName();
+
+    @Param({"DEFLATED", "STORED"})
+    public String method;
+
+    private Path fixtureDir;
+    private Path jar;
+    private Class<?> marker;
+
+    @Setup(Level.Trial)
+    public void writeFixture() throws Exception {
+        fixtureDir = Files.createTempDirectory("resource-loader-bench");
+        jar = Fixtures.writeJar(
+                fixtureDir.resolve("library.jar"),
+                LIBRARY,
+                Fixtures.nativeLibrary(),
+                Fixtures.method(method)
+        );
+    }
+
+    /**
+     * A library is only ever extracted and registered once per class,
+     * so every iteration gets a class it hasn't been loaded for yet.
+     */
+    @Setup(Level.Iteration)
+    public void newClass() throws Exception {
+        marker = Fixtures.loadMarker(jar);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteFixture() throws Exception {
+        Fixtures.delete(fixtureDir);
+    }
+
+    /**
+     * Extract the library and register it with a class.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 5)
+    @Measurement(iterations = 20)
+    public File firstLoad() {
+        return SharedLibraryLoader.get().load(LIBRARY, marker);
+    }
+
+    /**
+     * Load a library that is already registered with the class.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public File alreadyLoaded() {
+        return SharedLibraryLoader.get().load(LIBRARY, marker);
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) Terl Tech Ltd  • 04/04/2021, 00:07 • goterl.com
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v2.0. If a copy of the MPL was not distributed with this
+ * file, you can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package com.goterl.resourceloader;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A path to something inside a JAR, possibly through
+ * other JARs, such as {@code file:/app.jar/lib/inner.jar/file.txt}.
+ */
+final class ArchivePath {
+
+    private static final String JAR = ".jar";
+
+    /**
+     * What monster would put a JAR in a JAR 20 times?
+     */
+    static final int MAX_DEPTH = 20;
+
+    final File jar;
+    final List<String> nestedJars;
+    final String pathInJar;
+
+    ArchivePath(File jar, List<String> nestedJars, String pathInJar) {
+        this.jar = jar;
+        this.nestedJars = Collections.unmodifiableList(nestedJars);
+        this.pathInJar = pathInJar;
+    }
+
+    /**
+     * Split a full path like {@code file:/app.jar/lib/inner.jar/file.txt}
+     * into the JAR on disk ({@code /app.jar}), the nested JARs
+     * ({@code lib/inner.jar}) and the path inside the innermost JAR
+     * ({@code /file.txt}).
+     * @param fullPath A URL string to a file in a JAR.
+     * @return The split path or null if the path does not go into a JAR.
+     */
+    static ArchivePath parse(String fullPath) {
+        // After this line we have something like
+        // file:C/app, some/lazysodium, file.txt
+        String[] split = fullPath.split("(\\.jar/)");
+
+        if (split.length > MAX_DEPTH) {
+            throw new StackOverflowError("We cannot extract a file 21 or more layers deep.");
+        }
+        if (split.length == 1) {
+            return null;
+        }
+
+        // Remember split[0] = "file:C/app", so the JAR on
+        // disk is "file:C/app.jar". Everything in between
+        // the first and last part is a JAR inside a JAR.
+        File jar = ResourceLoader.urlToFile(split[0] + JAR);
+        List<String> nestedJars = new ArrayList<>();
+        for (int i = 1; i < split.length - 1; i++) {
+            nestedJars.add(split[i] + JAR);
+        }
+        return new ArchivePath(jar, nestedJars, "/" + split[split.length - 1]);
+    }
+}
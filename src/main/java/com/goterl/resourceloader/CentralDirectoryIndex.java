@@ -0,0 +1,383 @@
+/*
+ * Copyright (c) Terl Tech Ltd  • 04/04/2021, 00:07 • goterl.com
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v2.0. If a copy of the MPL was not distributed with this
+ * file, you can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package com.goterl.resourceloader;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.zip.ZipException;
+
+/**
+ * A compact, read-only index of a zip archive's central directory.
+ * <p>
+ * JARs with tens of thousands of entries would need tens of thousands
+ * of objects if every entry had its own. Instead, every entry name is
+ * kept in one byte pool and everything else about an entry is kept in
+ * primitive arrays, indexed by the entry's position in the central
+ * directory. Names are looked up through an open addressing hash table,
+ * and directories are listed by binary searching a sorted order of the
+ * names, which is only built the first time it is needed.
+ * </p>
+ */
+final class CentralDirectoryIndex {
+
+    private static final int CEN_SIG = 0x02014b50;
+    private static final int CEN_HEADER = 46;
+    private static final int ZIP64_EXTRA = 0x0001;
+
+    private final int count;
+    private final byte[] names;
+    private final int[] nameOffsets;
+    private final int[] methods;
+    private final int[] crcs;
+    private final long[] compressedSizes;
+    private final long[] sizes;
+    private final long[] localOffsets;
+
+    // Entry number + 1 for each slot, 0 for an empty slot.
+    private final int[] table;
+
+    // Entry numbers ordered by name. Built lazily.
+    private volatile int[] sorted;
+
+    // See contentKey(). Built lazily.
+    private volatile String contentKey;
+
+    private CentralDirectoryIndex(int count,
+                                  byte[] names,
+                                  int[] nameOffsets,
+                                  int[] methods,
+                                  int[] crcs,
+                                  long[] compressedSizes,
+                                  long[] sizes,
+                                  long[] localOffsets) {
+        this.count = count;
+        this.names = names;
+        this.nameOffsets = nameOffsets;
+        this.methods = methods;
+        this.crcs = crcs;
+        this.compressedSizes = compressedSizes;
+        this.sizes = sizes;
+        this.localOffsets = localOffsets;
+        this.table = new int[tableSize(count)];
+        for (int i = 0; i < count; i++) {
+            insert(i);
+        }
+    }
+
+    /**
+     * Parse the central directory records in {@code cen}.
+     * @param cen The whole of the central directory, little endian.
+     * @param expectedCount How many entries the end record says there are.
+     * @return The index.
+     * @throws ZipException If a record is invalid.
+     */
+    static CentralDirectoryIndex parse(ByteBuffer cen, long expectedCount) throws ZipException {
+        int capacity = (int) Math.max(16, Math.min(expectedCount, 1 << 20));
+        int count = 0;
+        // Names take up most of the central directory, so
+        // it makes a good first guess for the pool's size.
+        byte[] names = new byte[Math.max(16, cen.limit() - (int) Math.min(cen.limit(), expectedCount * CEN_HEADER))];
+        int[] nameOffsets = new int[capacity + 1];
+        int[] methods = new int[capacity];
+        int[] crcs = new int[capacity];
+        long[] compressedSizes = new long[capacity];
+        long[] sizes = new long[capacity];
+        long[] localOffsets = new long[capacity];
+        int namesLength = 0;
+
+        int pos = 0;
+        int cenSize = cen.limit();
+        while (pos + CEN_HEADER <= cenSize) {
+            if (cen.getInt(pos) != CEN_SIG) {
+                throw new ZipException("Invalid central directory header");
+            }
+            int method = cen.getShort(pos + 10) & 0xFFFF;
+            int crc = cen.getInt(pos + 16);
+            long compressedSize = cen.getInt(pos + 20) & 0xFFFFFFFFL;
+            long size = cen.getInt(pos + 24) & 0xFFFFFFFFL;
+            int nameLength = cen.getShort(pos + 28) & 0xFFFF;
+            int extraLength = cen.getShort(pos + 30) & 0xFFFF;
+            int commentLength = cen.getShort(pos + 32) & 0xFFFF;
+            long localOffset = cen.getInt(pos + 42) & 0xFFFFFFFFL;
+            if (pos + CEN_HEADER + nameLength + extraLength > cenSize) {
+                throw new ZipException("Invalid central directory header");
+            }
+
+            // Sizes and offsets that don't fit in 32 bits are
+            // kept in the zip64 extra field instead.
+            int extra = pos + CEN_HEADER + nameLength;
+            int extraEnd = extra + extraLength;
+            while (extra + 4 <= extraEnd) {
+                int id = cen.getShort(extra) & 0xFFFF;
+                int dataSize = cen.getShort(extra + 2) & 0xFFFF;
+                if (id == ZIP64_EXTRA) {
+                    int field = extra + 4;
+                    if (size == 0xFFFFFFFFL) {
+                        size = cen.getLong(field);
+                        field += 8;
+                    }
+                    if (compressedSize == 0xFFFFFFFFL) {
+                        compressedSize = cen.getLong(field);
+                        field += 8;
+                    }
+                    if (localOffset == 0xFFFFFFFFL) {
+                        localOffset = cen.getLong(field);
+                    }
+                }
+                extra += 4 + dataSize;
+            }
+
+            if (count == methods.length) {
+                int grown = count * 2;
+                nameOffsets = Arrays.copyOf(nameOffsets, grown + 1);
+                methods = Arrays.copyOf(methods, grown);
+                crcs = Arrays.copyOf(crcs, grown);
+                compressedSizes = Arrays.copyOf(compressedSizes, grown);
+                sizes = Arrays.copyOf(sizes, grown);
+                localOffsets = Arrays.copyOf(localOffsets, grown);
+            }
+            if (namesLength + nameLength > names.length) {
+                names = Arrays.copyOf(names, Math.max(names.length * 2, namesLength + nameLength));
+            }
+            cen.get(pos + CEN_HEADER, names, namesLength, nameLength);
+            nameOffsets[count] = namesLength;
+            namesLength += nameLength;
+            methods[count] = method;
+            crcs[count] = crc;
+            compressedSizes[count] = compressedSize;
+            sizes[count] = size;
+            localOffsets[count] = localOffset;
+            count++;
+
+            pos += CEN_HEADER + nameLength + extraLength + commentLength;
+        }
+        nameOffsets[count] = namesLength;
+
+        return new CentralDirectoryIndex(
+                count,
+                Arrays.copyOf(names, namesLength),
+                Arrays.copyOf(nameOffsets, count + 1),
+                Arrays.copyOf(methods, count),
+                Arrays.copyOf(crcs, count),
+                Arrays.copyOf(compressedSizes, count),
+                Arrays.copyOf(sizes, count),
+                Arrays.copyOf(localOffsets, count)
+        );
+    }
+
+    /**
+     * @return How many entries there are.
+     */
+    int size() {
+        return count;
+    }
+
+    /**
+     * @param name The full name of an entry.
+     * @return The entry's number or -1 if there is no such entry. If
+     * the archive has the same name twice, the first one wins.
+     */
+    int find(String name) {
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        int mask = table.length - 1;
+        for (int slot = hash(bytes, 0, bytes.length) & mask; ; slot = (slot + 1) & mask) {
+            int i = table[slot] - 1;
+            if (i < 0) {
+                return -1;
+            }
+            if (nameEquals(i, bytes)) {
+                return i;
+            }
+        }
+    }
+
+    /**
+     * @param prefix A name prefix such as {@code lib/}. An empty
+     *               prefix matches every entry.
+     * @return The numbers of every entry whose name starts with
+     * {@code prefix}, in name order.
+     */
+    int[] findUnder(String prefix) {
+        byte[] bytes = prefix.getBytes(StandardCharsets.UTF_8);
+        int[] order = sortedOrder();
+        int low = 0;
+        int high = order.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compare(order[mid], bytes) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        int end = low;
+        while (end < order.length && startsWith(order[end], bytes)) {
+            end++;
+        }
+        return Arrays.copyOfRange(order, low, end);
+    }
+
+    /**
+     * @return The SHA-256 of every entry's name, CRC32 and size, in name
+     * order. Archives with the same entries have the same key no matter
+     * where they are or when they were built.
+     */
+    String contentKey() {
+        String key = contentKey;
+        if (key == null) {
+            MessageDigest digest;
+            try {
+                digest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                // Every JVM is required to support SHA-256
+                throw new IllegalStateException(e);
+            }
+            ByteBuffer numbers = ByteBuffer.allocate(20);
+            for (int i : sortedOrder()) {
+                numbers.clear();
+                numbers.putInt(nameLength(i)).putLong(crc(i)).putLong(sizes[i]).flip();
+                digest.update(numbers);
+                digest.update(names, nameOffsets[i], nameLength(i));
+            }
+            key = HexFormat.of().formatHex(digest.digest());
+            contentKey = key;
+        }
+        return key;
+    }
+
+    String name(int i) {
+        return new String(names, nameOffsets[i], nameLength(i), StandardCharsets.UTF_8);
+    }
+
+    int method(int i) {
+        return methods[i];
+    }
+
+    long crc(int i) {
+        return crcs[i] & 0xFFFFFFFFL;
+    }
+
+    long compressedSize(int i) {
+        return compressedSizes[i];
+    }
+
+    long size(int i) {
+        return sizes[i];
+    }
+
+    long localOffset(int i) {
+        return localOffsets[i];
+    }
+
+    private int nameLength(int i) {
+        return nameOffsets[i + 1] - nameOffsets[i];
+    }
+
+    private void insert(int i) {
+        int mask = table.length - 1;
+        int offset = nameOffsets[i];
+        int length = nameLength(i);
+        for (int slot = hash(names, offset, offset + length) & mask; ; slot = (slot + 1) & mask) {
+            int existing = table[slot] - 1;
+            if (existing < 0) {
+                table[slot] = i + 1;
+                return;
+            }
+            if (nameLength(existing) == length
+                    && Arrays.equals(names, nameOffsets[existing], nameOffsets[existing] + length,
+                    names, offset, offset + length)) {
+                // Keep the first of any duplicate names.
+                return;
+            }
+        }
+    }
+
+    private boolean nameEquals(int i, byte[] bytes) {
+        int offset = nameOffsets[i];
+        return nameLength(i) == bytes.length
+                && Arrays.equals(names, offset, offset + bytes.length, bytes, 0, bytes.length);
+    }
+
+    private boolean startsWith(int i, byte[] prefix) {
+        int offset = nameOffsets[i];
+        return nameLength(i) >= prefix.length
+                && Arrays.equals(names, offset, offset + prefix.length, prefix, 0, prefix.length);
+    }
+
+    /**
+     * UTF-8 bytes compare in the same order as code points,
+     * so this is the same order as comparing the names.
+     */
+    private int compare(int i, byte[] bytes) {
+        int offset = nameOffsets[i];
+        return Arrays.compareUnsigned(names, offset, offset + nameLength(i), bytes, 0, bytes.length);
+    }
+
+    private int compare(int a, int b) {
+        int aOffset = nameOffsets[a];
+        int bOffset = nameOffsets[b];
+        return Arrays.compareUnsigned(names, aOffset, aOffset + nameLength(a), names, bOffset, bOffset + nameLength(b));
+    }
+
+    private int[] sortedOrder() {
+        int[] order = sorted;
+        if (order == null) {
+            order = new int[count];
+            for (int i = 0; i < count; i++) {
+                order[i] = i;
+            }
+            mergeSort(order.clone(), order, 0, count);
+            sorted = order;
+        }
+        return order;
+    }
+
+    /**
+     * Sort {@code to[low, high)} by name. Both arrays must hold the same
+     * entry numbers to begin with. The JDK can only sort ints in their
+     * natural order, and boxing every entry of a large JAR to use a
+     * comparator costs more than the sort does.
+     */
+    private void mergeSort(int[] from, int[] to, int low, int high) {
+        if (high - low < 2) {
+            return;
+        }
+        int mid = (low + high) >>> 1;
+        mergeSort(to, from, low, mid);
+        mergeSort(to, from, mid, high);
+        for (int i = low, left = low, right = mid; i < high; i++) {
+            if (right >= high || (left < mid && compare(from[left], from[right]) <= 0)) {
+                to[i] = from[left++];
+            } else {
+                to[i] = from[right++];
+            }
+        }
+    }
+
+    private static int hash(byte[] bytes, int from, int to) {
+        int h = 0;
+        for (int i = from; i < to; i++) {
+            h = 31 * h + bytes[i];
+        }
+        // Spread the high bits down, as only the low bits pick a slot.
+        return h ^ (h >>> 16);
+    }
+
+    private static int tableSize(int count) {
+        int size = 16;
+        while (size < count * 2) {
+            size <<= 1;
+        }
+        return size;
+    }
+}
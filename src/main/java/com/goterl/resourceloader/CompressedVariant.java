@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) Terl Tech Ltd  • 04/04/2021, 00:07 • goterl.com
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v2.0. If a copy of the MPL was not distributed with this
+ * file, you can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package com.goterl.resourceloader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Compressed copies of a resource that are used when the resource
+ * itself isn't there. Asking for {@code model.bin} when only
+ * {@code model.bin.gz} exists gets you {@code model.bin.gz}
+ * decompressed, without the compressed file ever being written out.
+ * Variants are tried in the order they are declared.
+ * <p>
+ * Variants are used by the methods that load, read, map or check for a
+ * single file by name: {@code load}, {@code loadAsync}, {@code loadAll},
+ * {@code openStream}, {@code readAllBytes}, {@code openChannel},
+ * {@code mapResource} and {@code exists}. Knowing a variant's size or
+ * checksum means decompressing it, so {@code size} and {@code checksum}
+ * don't use them. {@code list}, {@code loadMatching} and
+ * {@code loadLazily} list the files that are really there, and
+ * {@code loadAsPath} only returns paths that are in the JAR.
+ * </p>
+ */
+enum CompressedVariant {
+
+    /**
+     * Compressed with gzip.
+     */
+    GZIP(".gz") {
+        @Override
+        InputStream decompress(InputStream in) throws IOException {
+            return new GZIPInputStream(in, BUFFER_SIZE);
+        }
+    },
+
+    /**
+     * Raw DEFLATE data with no header or trailer, the same
+     * as a DEFLATED entry in a JAR.
+     */
+    DEFLATE(".deflate") {
+        @Override
+        InputStream decompress(InputStream in) {
+            return new ZipDirectory.EntryInflaterInputStream(in, BUFFER_SIZE);
+        }
+    };
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    final String extension;
+
+    CompressedVariant(String extension) {
+        this.extension = extension;
+    }
+
+    /**
+     * @param in The compressed data. It is closed when
+     *           the returned stream is closed.
+     * @return The decompressed data.
+     * @throws IOException If the data isn't in this format.
+     */
+    abstract InputStream decompress(InputStream in) throws IOException;
+}
@@ -0,0 +1,392 @@
+/*
+ * Copyright (c) Terl Tech Ltd  • 04/04/2021, 00:07 • goterl.com
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v2.0. If a copy of the MPL was not distributed with this
+ * file, you can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package com.goterl.resourceloader;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+
+/**
+ * A persistent cache of extracted JAR entries that survives
+ * restarts of the JVM. The cache is opt-in, either through
+ * {@link ResourceLoader#enablePersistentCache()} or by setting the
+ * {@code resourceloader.cache.dir} system property.
+ * <p>
+ * The cache directory is laid out as follows:
+ * </p>
+ * <pre>
+ * &lt;cache dir&gt;/
+ *   &lt;jar key&gt;/                      SHA-256 of every entry's name, CRC32 and size
+ *     lock                           Held by whoever is extracting into this directory
+ *     files/&lt;entry name&gt;            The extracted entry, at the same path it has in the JAR
+ *     valid/&lt;entry name&gt;.&lt;crc32&gt;    Written once the entry has been fully published
+ *     tmp/                           Entries that are still being extracted
+ * </pre>
+ * <p>
+ * An entry is only ever returned when its {@code valid} marker exists
+ * for the entry's current CRC32 and the extracted file has the size the
+ * central directory says it should have. Entries are extracted into
+ * {@code tmp/} and atomically moved into {@code files/} so a crash
+ * half way through extraction never leaves a partial file behind.
+ * </p>
+ * <p>
+ * Directories are made readable by their owner only. An entry is also
+ * only returned if it belongs to the user this process runs as and
+ * nobody else can write to it, otherwise it is extracted again. Files
+ * in the cache are shared, so their permissions are never changed
+ * afterwards: see {@link ResourceLoader#setPermissions(File, Set)}.
+ * </p>
+ * <p>
+ * The cache can be shared by every JVM on the host. The key only depends
+ * on what is in the JAR, so copies of the same JAR in different places
+ * share one set of files, and a rebuilt JAR with different contents ends
+ * up under a different key. Entries that are already published are used
+ * without any locking. Anything missing is extracted while holding a
+ * {@link FileLock} on the key's {@code lock} file, so when several JVMs
+ * start at once only the first extracts and the rest use its files.
+ * </p>
+ */
+final class ExtractionCache {
+
+    static final String CACHE_DIR_PROPERTY = "resourceloader.cache.dir";
+
+    private static final String FILES = "files";
+    private static final String VALID = "valid";
+    private static final String TMP = "tmp";
+    private static final String LOCK = "lock";
+
+    private static final Logger logger = LoggerFactory.getLogger("ResourceLoader");
+
+    private static final Set<PosixFilePermission> OWNER_ONLY = PosixFilePermissions.fromString("rwx------");
+
+    private static volatile ExtractionCache instance = fromSystemProperty();
+
+    private final Path root;
+
+    private ExtractionCache(Path root) {
+        this.root = root.toAbsolutePath().normalize();
+    }
+
+    /**
+     * @return The enabled cache, or null if the persistent cache is disabled.
+     */
+    static ExtractionCache get() {
+        return instance;
+    }
+
+    static void enable(File directory) {
+        instance = new ExtractionCache(directory.toPath());
+    }
+
+    static void disable() {
+        instance = null;
+    }
+
+    /**
+     * @return {@code ~/.cache/resource-loader}, or the equivalent
+     * under {@code $XDG_CACHE_HOME} if that is set.
+     */
+    static File defaultDirectory() {
+        String xdg = System.getenv("XDG_CACHE_HOME");
+        File base = (xdg != null && !xdg.isEmpty())
+                ? new File(xdg)
+                : new File(System.getProperty("user.home"), ".cache");
+        return new File(base, "resource-loader");
+    }
+
+    private static ExtractionCache fromSystemProperty() {
+        String dir = System.getProperty(CACHE_DIR_PROPERTY);
+        if (dir == null || dir.isEmpty()) {
+            return null;
+        }
+        return new ExtractionCache(Paths.get(dir));
+    }
+
+    File getDirectory() {
+        return root.toFile();
+    }
+
+    /**
+     * @param file A file or directory.
+     * @return True if the file lives inside this cache.
+     */
+    boolean contains(File file) {
+        return file.toPath().toAbsolutePath().normalize().startsWith(root);
+    }
+
+    /**
+     * Get a file or directory from a JAR, extracting only the entries
+     * that are not already in the cache.
+     * @param jar The JAR to extract from.
+     * @param pathInJar A path to a file or directory inside the JAR.
+     * @return The cached file or directory.
+     * @throws IOException If the JAR could not be read or the cache could not be written to.
+     */
+    File extract(File jar, String pathInJar) throws IOException {
+        try (FileChannel channel = FileChannel.open(jar.toPath(), StandardOpenOption.READ)) {
+            ZipDirectory directory = ZipDirectory.read(jar.toPath(), channel, 0, channel.size());
+            return extract(directory, root.resolve(keyOf(directory)), pathInJar);
+        }
+    }
+
+    /**
+     * Get many files and directories from a JAR, opening the JAR only once.
+     * @param jar The JAR to extract from.
+     * @param pathsInJar A map of keys to the paths inside the JAR to extract.
+     * @param onFailure Told about every key that could not be extracted.
+     * @return The cached files and directories by key.
+     * @throws IOException If the JAR could not be read at all.
+     */
+    Map<String, File> extractAll(File jar, Map<String, String> pathsInJar, BiConsumer<String, Exception> onFailure)
+            throws IOException {
+        Map<String, File> extracted = new LinkedHashMap<>();
+        try (FileChannel channel = FileChannel.open(jar.toPath(), StandardOpenOption.READ)) {
+            ZipDirectory directory = ZipDirectory.read(jar.toPath(), channel, 0, channel.size());
+            Path jarDir = root.resolve(keyOf(directory));
+            for (Map.Entry<String, String> request : pathsInJar.entrySet()) {
+                try {
+                    File file = extract(directory, jarDir, request.getValue());
+                    if (!file.exists()) {
+                        throw new FileNotFoundException(request.getValue() + " does not exist in " + jar);
+                    }
+                    extracted.put(request.getKey(), file);
+                } catch (IOException e) {
+                    onFailure.accept(request.getKey(), e);
+                }
+            }
+        }
+        return extracted;
+    }
+
+    private File extract(ZipDirectory directory, Path jarDir, String pathInJar) throws IOException {
+        String name = JarExtractor.stripSlashes(pathInJar);
+        Path files = jarDir.resolve(FILES);
+        Metrics.Extraction extraction = Metrics.extraction(name, directory.kind());
+        ZipDirectory.Entry entry = name.isEmpty() ? null : directory.find(name);
+        List<ZipDirectory.Entry> wanted = new ArrayList<>();
+        if (entry != null && !entry.isDirectory()) {
+            wanted.add(entry);
+        } else {
+            String prefix = name.isEmpty() ? "" : name + "/";
+            List<ZipDirectory.Entry> under = directory.entriesUnder(prefix);
+            if (entry == null && !name.isEmpty() && under.isEmpty()) {
+                // Don't leave an empty directory behind for something that isn't there.
+                throw new FileNotFoundException(name + " does not exist in the JAR");
+            }
+            createDirectories(JarExtractor.resolve(files, name));
+            for (ZipDirectory.Entry e : under) {
+                if (e.isDirectory()) {
+                    createDirectories(JarExtractor.resolve(files, e.name));
+                } else {
+                    wanted.add(e);
+                }
+            }
+        }
+
+        List<ZipDirectory.Entry> missing = new ArrayList<>();
+        for (ZipDirectory.Entry e : wanted) {
+            if (isCached(jarDir, e)) {
+                Metrics.cache(LoaderMetrics.Cache.PERSISTENT, e.name, true);
+            } else {
+                missing.add(e);
+            }
+        }
+        if (!missing.isEmpty()) {
+            HostLock lock = HostLock.acquire(jarDir, extraction);
+            try {
+                for (ZipDirectory.Entry e : missing) {
+                    fetch(directory, e, jarDir, extraction);
+                }
+            } finally {
+                lock.close();
+            }
+        }
+        extraction.end();
+        return JarExtractor.resolve(files, name).toFile();
+    }
+
+    /**
+     * Publish an entry. Only called while holding the {@link HostLock}.
+     */
+    private void fetch(ZipDirectory directory,
+                       ZipDirectory.Entry entry,
+                       Path jarDir,
+                       Metrics.Extraction extraction) throws IOException {
+        if (isCached(jarDir, entry)) {
+            // Another process published it while we waited for the lock.
+            Metrics.cache(LoaderMetrics.Cache.PERSISTENT, entry.name, true);
+            return;
+        }
+        Metrics.cache(LoaderMetrics.Cache.PERSISTENT, entry.name, false);
+
+        Path target = JarExtractor.resolve(jarDir.resolve(FILES), entry.name);
+        Path marker = JarExtractor.resolve(jarDir.resolve(VALID), markerName(entry));
+        logger.debug("Caching {} in {}", entry.name, target);
+        Path tmpDir = jarDir.resolve(TMP);
+        createDirectories(tmpDir);
+        createDirectories(target.getParent());
+        Path tmp = Files.createTempFile(tmpDir, "entry", ".tmp");
+        try {
+            extraction.add(JarExtractor.writeEntry(directory, entry, tmp));
+            move(tmp, target);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+
+        createDirectories(marker.getParent());
+        if (!Files.exists(marker)) {
+            Files.createFile(marker);
+        }
+    }
+
+    /**
+     * Make a directory, and any of its parents, that only its
+     * owner can use. Existing directories are left as they are.
+     */
+    private static void createDirectories(Path dir) throws IOException {
+        if (isPosix(dir)) {
+            Files.createDirectories(dir, PosixFilePermissions.asFileAttribute(OWNER_ONLY));
+        } else {
+            Files.createDirectories(dir);
+        }
+    }
+
+    private static boolean isPosix(Path path) {
+        return path.getFileSystem().supportedFileAttributeViews().contains("posix");
+    }
+
+    private static boolean isCached(Path jarDir, ZipDirectory.Entry entry) throws IOException {
+        Path target = JarExtractor.resolve(jarDir.resolve(FILES), entry.name);
+        Path marker = JarExtractor.resolve(jarDir.resolve(VALID), markerName(entry));
+        return isValid(target, marker, entry);
+    }
+
+    /**
+     * Validating an entry only takes a couple of stat calls
+     * and never decompresses anything.
+     */
+    private static boolean isValid(Path target, Path marker, ZipDirectory.Entry entry) throws IOException {
+        if (!Files.exists(marker)) {
+            return false;
+        }
+        Class<? extends BasicFileAttributes> type = isPosix(target) ? PosixFileAttributes.class : BasicFileAttributes.class;
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(target, type, LinkOption.NOFOLLOW_LINKS);
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+        return attributes.isRegularFile()
+                && attributes.size() == entry.size
+                && isTrusted(target, attributes);
+    }
+
+    /**
+     * @return True if {@code file} belongs to us and nobody else
+     * can change it, so it still holds what we extracted.
+     */
+    private static boolean isTrusted(Path file, BasicFileAttributes attributes) throws IOException {
+        if (attributes instanceof PosixFileAttributes) {
+            PosixFileAttributes posix = (PosixFileAttributes) attributes;
+            return posix.owner().equals(TempDirectories.user())
+                    && !posix.permissions().contains(PosixFilePermission.GROUP_WRITE)
+                    && !posix.permissions().contains(PosixFilePermission.OTHERS_WRITE);
+        }
+        return Objects.equals(TempDirectories.ownerOf(file), TempDirectories.user());
+    }
+
+    private static void move(Path from, Path to) throws IOException {
+        try {
+            Files.move(from, to, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(from, to, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static String markerName(ZipDirectory.Entry entry) {
+        return entry.name + "." + String.format("%08x", entry.crc);
+    }
+
+    /**
+     * @return A key that only changes when the JAR's entries do.
+     */
+    static String keyOf(ZipDirectory directory) {
+        return directory.contentKey().substring(0, 32);
+    }
+
+    /**
+     * A lock on one JAR's directory in the cache, held against other
+     * threads in this JVM as well as other processes. A {@link FileLock}
+     * on its own is only held by the JVM as a whole, and asking for it
+     * twice from the same JVM throws an exception.
+     */
+    private static final class HostLock implements Closeable {
+        private static final ConcurrentMap<Path, ReentrantLock> LOCAL = new ConcurrentHashMap<>();
+
+        private final ReentrantLock local;
+        private final FileChannel channel;
+
+        private HostLock(ReentrantLock local, FileChannel channel) {
+            this.local = local;
+            this.channel = channel;
+        }
+
+        static HostLock acquire(Path jarDir, Metrics.Extraction extraction) throws IOException {
+            createDirectories(jarDir);
+            Path lockFile = jarDir.resolve(LOCK);
+            ReentrantLock local = LOCAL.computeIfAbsent(lockFile, k -> new ReentrantLock());
+            long start = System.nanoTime();
+            local.lock();
+            FileChannel channel = null;
+            try {
+                channel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                channel.lock();
+                extraction.waited(System.nanoTime() - start);
+                return new HostLock(local, channel);
+            } catch (IOException | RuntimeException | Error e) {
+                if (channel != null) {
+                    channel.close();
+                }
+                local.unlock();
+                throw e;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                // Closing the channel releases the file lock.
+                channel.close();
+            } finally {
+                local.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) Terl Tech Ltd  • 04/04/2021, 00:07 • goterl.com
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v2.0. If a copy of the MPL was not distributed with this
+ * file, you can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package com.goterl.resourceloader;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Files written out of a JAR or copied from the file system.
+ * Disabled by default, see {@link LoaderEvents}.
+ */
+@Name("com.goterl.resourceloader.Extraction")
+@Label("Resource Extraction")
+@Category("Resource Loader")
+@Description("Files written out of a JAR or copied from the file system")
+@Enabled(false)
+@StackTrace(false)
+final class ExtractionEvent extends Event {
+
+    @Label("Resource")
+    @Description("The path inside the JAR or relative to the resources folder")
+    String resource;
+
+    @Label("Source Kind")
+    @Description("DIRECTORY, JAR or NESTED_JAR")
+    String sourceKind;
+
+    @Label("Bytes Written")
+    @DataAmount
+    long bytesWritten;
+
+    @Label("Entries")
+    @Description("How many files were written")
+    int entries;
+
+    @Label("Lock Wait")
+    @Description("Time spent waiting for someone else loading the same resource")
+    @Timespan
+    long lockWait;
+}
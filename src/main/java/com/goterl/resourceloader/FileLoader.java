@@ -8,15 +8,45 @@
 
 package com.goterl.resourceloader;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.net.URISyntaxException;
 import java.nio.file.attribute.PosixFilePermission;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.BiConsumer;
 
 public class FileLoader extends ResourceLoader {
 
+    private final Logger logger = LoggerFactory.getLogger("ResourceLoader");
+
+    // Files we have already loaded. Each future completes once
+    // the file has been extracted, so concurrent callers asking for
+    // the same file all wait on the same extraction.
+    private final ConcurrentMap<LoadKey, CompletableFuture<File>> loaded = new ConcurrentHashMap<>();
+
+    // Resources that are open through LoadedResource handles. These
+    // are separate from the files above, so closing a handle never
+    // deletes a file that was handed out by load().
+    private final ConcurrentMap<LoadKey, OpenResource> opened = new ConcurrentHashMap<>();
+
     private FileLoader() {
         super();
     }
@@ -45,7 +75,8 @@ public class FileLoader extends ResourceLoader {
     /**
      * Load a file/directory from your resource folder with permissions
      * you set. On windows, any type of read, write and execute permissions will
-     * be set appropriately.
+     * be set appropriately. Loading the same file or directory again returns
+     * the already loaded copy, as long as it still exists.
      * @param relativePath Relative path to your file or directory.
      * @param permissions A set of permissions.
      * @return The file your directory.
@@ -54,16 +85,470 @@ public class FileLoader extends ResourceLoader {
      */
     public File load(String relativePath, Set<PosixFilePermission> permissions, Class outsideClass)
             throws IOException, URISyntaxException {
-        return loadFromRelativePath(relativePath, permissions, outsideClass);
+        LoadKey key = new LoadKey(getThePathToTheJarWeAreIn(outsideClass), relativePath, permissions);
+        while (true) {
+            CompletableFuture<File> loading = new CompletableFuture<>();
+            CompletableFuture<File> existing = loaded.putIfAbsent(key, loading);
+            if (existing == null) {
+                return loadOnce(key, loading, relativePath, permissions, outsideClass);
+            }
+            File file = existing.isDone() ? await(existing) : awaitLoad(existing, relativePath, outsideClass);
+            if (file.exists()) {
+                Metrics.cache(LoaderMetrics.Cache.LOADED_FILES, relativePath, true);
+                return file;
+            }
+            // Someone deleted it, so load it again.
+            loaded.remove(key, existing);
+        }
     }
 
-    private File loadFromRelativePath(String relativePath, Set<PosixFilePermission> filePermissions, Class outsideClass)
+    /**
+     * Load a directory whose files are only extracted when they are first
+     * asked for, with global read, write and execute.
+     * @see #loadLazily(String, Set, Class)
+     * @param relativePath Relative path to your directory.
+     * @param outsideClass A class that lives next to the resources.
+     * @return The directory.
+     * @throws IOException If the directory does not exist or could not be listed.
+     * @throws URISyntaxException If cannot find the resource directory.
+     */
+    public LazyDirectory loadLazily(String relativePath, Class outsideClass) throws IOException, URISyntaxException {
+        return loadLazily(relativePath, new HashSet<>(), outsideClass);
+    }
+
+    /**
+     * Load a directory whose files are only extracted when they are first
+     * asked for, with permissions you set. Unlike {@link #load}, which
+     * copies a whole directory up front, this only lists it. Each file
+     * is extracted on its own the first time {@link LazyDirectory#getFile}
+     * asks for it, so a large directory of which only a few files are
+     * used costs only those files. Only the files that are really in the
+     * directory can be asked for, so compressed copies aren't decompressed.
+     * @param relativePath Relative path to your directory.
+     * @param permissions A set of permissions for each file.
+     * @param outsideClass A class that lives next to the resources.
+     * @return The directory.
+     * @throws IOException If the directory does not exist or could not be listed.
+     * @throws URISyntaxException If cannot find the resource directory.
+     */
+    public LazyDirectory loadLazily(String relativePath, Set<PosixFilePermission> permissions, Class outsideClass)
+            throws IOException, URISyntaxException {
+        return new LazyDirectory(this, relativePath, permissions, outsideClass);
+    }
+
+    /**
+     * Load a file/directory with global read, write and execute, and get
+     * a handle that deletes it once closed.
+     * @see #open(String, Set, Class)
+     * @param relativePath Relative path to your file or directory.
+     * @param outsideClass A class that lives next to the resources.
+     * @return A handle to the loaded file or directory.
+     * @throws IOException If at any point processing of the resource file fails.
+     * @throws URISyntaxException If cannot find the resource file.
+     */
+    public LoadedResource open(String relativePath, Class outsideClass) throws IOException, URISyntaxException {
+        return open(relativePath, new HashSet<>(), outsideClass);
+    }
+
+    /**
+     * Load a file/directory with permissions you set, and get a handle
+     * that deletes it once closed. Opening a resource that is already
+     * open shares the copy that is already loaded. The copy is deleted
+     * when the last handle to it is closed, so disk usage follows what
+     * is still open rather than how long the JVM has been running.
+     * These copies are never the ones {@link #load} returns.
+     * @param relativePath Relative path to your file or directory.
+     * @param permissions A set of permissions.
+     * @param outsideClass A class that lives next to the resources.
+     * @return A handle to the loaded file or directory.
+     * @throws IOException If at any point processing of the resource file fails.
+     * @throws URISyntaxException If cannot find the resource file.
+     */
+    public LoadedResource open(String relativePath, Set<PosixFilePermission> permissions, Class outsideClass)
+            throws IOException, URISyntaxException {
+        LoadKey key = new LoadKey(getThePathToTheJarWeAreIn(outsideClass), relativePath, permissions);
+        while (true) {
+            OpenResource mine = new OpenResource(key);
+            OpenResource existing = opened.putIfAbsent(key, mine);
+            if (existing == null) {
+                Metrics.cache(LoaderMetrics.Cache.LOADED_FILES, relativePath, false);
+                try {
+                    File file = loadFromRelativePath(relativePath, permissions, outsideClass);
+                    mine.loading.complete(file);
+                    return new LoadedResource(mine, file);
+                } catch (IOException | URISyntaxException | RuntimeException | Error e) {
+                    opened.remove(key, mine);
+                    mine.loading.completeExceptionally(e);
+                    throw e;
+                }
+            }
+            if (!existing.acquire()) {
+                // Its last handle was just closed, so load it again.
+                opened.remove(key, existing);
+                continue;
+            }
+            File file;
+            try {
+                file = existing.loading.isDone()
+                        ? await(existing.loading)
+                        : awaitLoad(existing.loading, relativePath, outsideClass);
+            } catch (IOException | URISyntaxException | RuntimeException | Error e) {
+                existing.release();
+                throw e;
+            }
+            Metrics.cache(LoaderMetrics.Cache.LOADED_FILES, relativePath, true);
+            return new LoadedResource(existing, file);
+        }
+    }
+
+    /**
+     * Load a file/directory in the background with global read, write and execute.
+     * @see #loadAsync(String, Set, Class, Executor)
+     * @param relativePath Relative path to your file or directory.
+     * @param outsideClass A class that lives next to the resources.
+     * @return The file or directory once it has been loaded.
+     */
+    public CompletableFuture<File> loadAsync(String relativePath, Class outsideClass) {
+        return loadAsync(relativePath, new HashSet<>(), outsideClass, getDefaultExecutor());
+    }
+
+    /**
+     * Load a file/directory in the background with permissions you set.
+     * @see #loadAsync(String, Set, Class, Executor)
+     * @param relativePath Relative path to your file or directory.
+     * @param permissions A set of permissions.
+     * @param outsideClass A class that lives next to the resources.
+     * @return The file or directory once it has been loaded.
+     */
+    public CompletableFuture<File> loadAsync(String relativePath,
+                                             Set<PosixFilePermission> permissions,
+                                             Class outsideClass) {
+        return loadAsync(relativePath, permissions, outsideClass, getDefaultExecutor());
+    }
+
+    /**
+     * Load a file/directory on {@code executor}. Asking for a file that is
+     * already being loaded, by this or by {@link #load}, doesn't load it
+     * again. You get a future for the load that is already running.
+     * @param relativePath Relative path to your file or directory.
+     * @param permissions A set of permissions.
+     * @param outsideClass A class that lives next to the resources.
+     * @param executor Where to run the load.
+     * @return The file or directory once it has been loaded. If loading
+     * fails, the future completes with the IOException or URISyntaxException.
+     */
+    public CompletableFuture<File> loadAsync(String relativePath,
+                                             Set<PosixFilePermission> permissions,
+                                             Class outsideClass,
+                                             Executor executor) {
+        LoadKey key = new LoadKey(getThePathToTheJarWeAreIn(outsideClass), relativePath, permissions);
+        while (true) {
+            CompletableFuture<File> loading = new CompletableFuture<>();
+            CompletableFuture<File> existing = loaded.putIfAbsent(key, loading);
+            if (existing == null) {
+                try {
+                    executor.execute(() -> {
+                        try {
+                            loadOnce(key, loading, relativePath, permissions, outsideClass);
+                        } catch (Exception | Error e) {
+                            // loadOnce has already handed this to the future.
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    loaded.remove(key, loading);
+                    loading.completeExceptionally(e);
+                }
+                // A copy, so a caller cancelling their future doesn't
+                // cancel it for everyone else waiting on this load.
+                return loading.copy();
+            }
+            if (existing.isDone() && !existing.isCompletedExceptionally() && !existing.join().exists()) {
+                // Someone deleted it, so load it again.
+                loaded.remove(key, existing);
+                continue;
+            }
+            Metrics.cache(LoaderMetrics.Cache.LOADED_FILES, relativePath, true);
+            return existing.copy();
+        }
+    }
+
+    /**
+     * Load many files/directories from your resource folder in one go, with
+     * global read, write and execute. This is much quicker than loading them one
+     * by one, as the JAR they're in is only opened once.
+     * @param relativePaths Relative paths to your files or directories.
+     * @param outsideClass A class that lives next to the resources.
+     * @return The files and directories that were loaded by their relative path.
+     * Any that could not be loaded are logged and left out.
+     * @throws IOException If the temporary directory could not be created.
+     */
+    public Map<String, File> loadAll(Collection<String> relativePaths, Class outsideClass) throws IOException {
+        return loadAll(relativePaths, new HashSet<>(), outsideClass, (relativePath, e) ->
+                logger.warn("Could not load {}", relativePath, e));
+    }
+
+    /**
+     * Load many files/directories from your resource folder in one go, with
+     * permissions you set. A file that fails to load does not stop the others
+     * from loading. Files that have already been loaded, or are being loaded
+     * by {@link #load} or {@link #loadAsync}, are shared rather than loaded
+     * again. A {@code .gz} or {@code .deflate} copy is decompressed for a file
+     * that isn't there, as {@link #load} does.
+     * @param relativePaths Relative paths to your files or directories.
+     * @param permissions A set of permissions.
+     * @param outsideClass A class that lives next to the resources.
+     * @param onFailure Told about every relative path that could not be loaded.
+     * @return The files and directories that were loaded by their relative path.
+     * @throws IOException If the temporary directory could not be created.
+     */
+    public Map<String, File> loadAll(Collection<String> relativePaths,
+                                     Set<PosixFilePermission> permissions,
+                                     Class outsideClass,
+                                     BiConsumer<String, Exception> onFailure) throws IOException {
+        Object codeSource = getThePathToTheJarWeAreIn(outsideClass);
+        Set<String> unique = new LinkedHashSet<>(relativePaths);
+
+        // Claim every file that nobody else is loading. The rest
+        // are already loaded, or are being loaded by someone else.
+        Map<String, CompletableFuture<File>> toLoad = new LinkedHashMap<>();
+        for (String relativePath : unique) {
+            LoadKey key = new LoadKey(codeSource, relativePath, permissions);
+            CompletableFuture<File> loading = new CompletableFuture<>();
+            if (loaded.putIfAbsent(key, loading) == null) {
+                toLoad.put(relativePath, loading);
+            }
+        }
+
+        Map<String, File> copied = new LinkedHashMap<>();
+        Map<String, Exception> failures = new LinkedHashMap<>();
+        if (!toLoad.isEmpty()) {
+            try {
+                copied = copyAllToTempDirectory(toLoad.keySet(), outsideClass, failures::put);
+            } catch (IOException | RuntimeException | Error e) {
+                for (Map.Entry<String, CompletableFuture<File>> loading : toLoad.entrySet()) {
+                    loaded.remove(new LoadKey(codeSource, loading.getKey(), permissions), loading.getValue());
+                    loading.getValue().completeExceptionally(e);
+                }
+                throw e;
+            }
+        }
+
+        // Finish our own loads before waiting on anyone else's, as
+        // they could be waiting on ours.
+        Map<String, File> ours = new LinkedHashMap<>();
+        for (Map.Entry<String, CompletableFuture<File>> loading : toLoad.entrySet()) {
+            String relativePath = loading.getKey();
+            File file = copied.get(relativePath);
+            Exception failure = failures.get(relativePath);
+            if (file != null && failure == null) {
+                try {
+                    File withPermissions = setPermissions(file, permissions);
+                    ours.put(relativePath, withPermissions);
+                    loading.getValue().complete(withPermissions);
+                    continue;
+                } catch (IOException e) {
+                    failure = e;
+                }
+            }
+            if (failure == null) {
+                failure = new FileNotFoundException("Could not load " + relativePath);
+            }
+            // Don't remember failures, the next caller should try again.
+            loaded.remove(new LoadKey(codeSource, relativePath, permissions), loading.getValue());
+            loading.getValue().completeExceptionally(failure);
+            failures.put(relativePath, failure);
+        }
+
+        Map<String, File> files = new LinkedHashMap<>();
+        for (String relativePath : unique) {
+            if (ours.containsKey(relativePath)) {
+                files.put(relativePath, ours.get(relativePath));
+            } else if (failures.containsKey(relativePath)) {
+                onFailure.accept(relativePath, failures.get(relativePath));
+            } else {
+                // Someone else is loading it, or already has. Share
+                // their copy, the same way load() does.
+                try {
+                    files.put(relativePath, load(relativePath, permissions, outsideClass));
+                } catch (IOException | URISyntaxException e) {
+                    onFailure.accept(relativePath, e);
+                }
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Load every file whose path matches a glob or regex, with global read,
+     * write and execute.
+     * @see #loadMatching(String, Set, Class)
+     * @param pattern A glob such as {@code native/linux-x86-64/**.so}.
+     * @param outsideClass A class that lives next to the resources.
+     * @return The loaded files.
+     * @throws IOException If the files could not be loaded.
+     * @throws URISyntaxException If cannot find the resources.
+     */
+    public List<File> loadMatching(String pattern, Class outsideClass) throws IOException, URISyntaxException {
+        return loadMatching(pattern, new HashSet<>(), outsideClass);
+    }
+
+    /**
+     * Load every file whose path matches a glob or regex, with permissions
+     * you set. The files keep their relative paths, so
+     * {@code native/linux/libfoo.so} ends up in a {@code native/linux}
+     * directory. Each file gets its permissions as soon as it is written.
+     * The pattern is matched against the files that are really there, so
+     * a compressed copy such as {@code libfoo.so.gz} is loaded as it is.
+     * @param pattern A glob such as {@code native/linux-x86-64/**.so}, or a
+     *                pattern with an explicit {@code glob:} or {@code regex:} prefix.
+     * @param permissions A set of permissions.
+     * @param outsideClass A class that lives next to the resources.
+     * @return The loaded files in order of their relative paths.
+     * @throws IOException If the files could not be loaded.
+     * @throws URISyntaxException If cannot find the resources.
+     */
+    public List<File> loadMatching(String pattern, Set<PosixFilePermission> permissions, Class outsideClass)
             throws IOException, URISyntaxException {
-        File file = copyToTempDirectory(relativePath, outsideClass);
-        setPermissions(file, filePermissions);
+        return copyMatchingToTempDirectory(pattern, permissions, outsideClass);
+    }
+
+    private File loadOnce(LoadKey key,
+                          CompletableFuture<File> loading,
+                          String relativePath,
+                          Set<PosixFilePermission> permissions,
+                          Class outsideClass) throws IOException, URISyntaxException {
+        Metrics.cache(LoaderMetrics.Cache.LOADED_FILES, relativePath, false);
+        try {
+            File file = loadFromRelativePath(relativePath, permissions, outsideClass);
+            loading.complete(file);
+            return file;
+        } catch (IOException | URISyntaxException | RuntimeException | Error e) {
+            // Don't remember failures, the next caller should try again.
+            loaded.remove(key, loading);
+            loading.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    static File await(CompletableFuture<File> loading) throws IOException, URISyntaxException {
+        try {
+            return loading.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof URISyntaxException) {
+                throw (URISyntaxException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Wait for someone else's load of the same file, recording
+     * how long that took if the JFR event is enabled.
+     */
+    private static File awaitLoad(CompletableFuture<File> loading, String relativePath, Class outsideClass)
+            throws IOException, URISyntaxException {
+        ExtractionEvent event = LoaderEvents.beginExtraction();
+        long start = event == null ? 0 : System.nanoTime();
+        File file = await(loading);
+        if (event != null) {
+            ResourceLocation.Kind kind = ResourceLocation.of(outsideClass).kind;
+            LoaderEvents.commit(event, relativePath, kind, 0, 0, System.nanoTime() - start);
+        }
         return file;
     }
 
+    private File loadFromRelativePath(String relativePath, Set<PosixFilePermission> filePermissions, Class outsideClass)
+            throws IOException, URISyntaxException {
+        return setPermissions(copyToTempDirectory(relativePath, outsideClass), filePermissions);
+    }
+
+    /**
+     * Identifies a loaded file by where it was loaded from
+     * and the permissions it was given.
+     */
+    private static final class LoadKey {
+        private final String codeSource;
+        private final String relativePath;
+        private final Set<PosixFilePermission> permissions;
+
+        LoadKey(Object codeSource, String relativePath, Set<PosixFilePermission> permissions) {
+            this.codeSource = String.valueOf(codeSource);
+            this.relativePath = relativePath;
+            this.permissions = Set.copyOf(permissions);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof LoadKey)) {
+                return false;
+            }
+            LoadKey other = (LoadKey) o;
+            return codeSource.equals(other.codeSource)
+                    && relativePath.equals(other.relativePath)
+                    && permissions.equals(other.permissions);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(codeSource, relativePath, permissions);
+        }
+    }
+
+    /**
+     * A resource that is open through one or more {@link LoadedResource}
+     * handles. The first handle loads it, the last one deletes it.
+     */
+    final class OpenResource {
+        private final LoadKey key;
+        private final CompletableFuture<File> loading = new CompletableFuture<>();
+        private int handles = 1;
+
+        OpenResource(LoadKey key) {
+            this.key = key;
+        }
+
+        /**
+         * @return False if the last handle has already been closed.
+         */
+        synchronized boolean acquire() {
+            if (handles == 0) {
+                return false;
+            }
+            handles++;
+            return true;
+        }
+
+        void release() {
+            synchronized (this) {
+                if (--handles > 0) {
+                    return;
+                }
+            }
+            opened.remove(key, this);
+            if (loading.isDone() && !loading.isCompletedExceptionally()) {
+                File file = loading.join();
+                if (TempDirectories.contains(file)) {
+                    TempDirectories.delete(TempDirectories.topOf(file));
+                } else {
+                    logger.debug("Not deleting {} as it is not a temporary file", file);
+                }
+            }
+        }
+    }
+
     private static class SingletonHelper {
         private static final FileLoader INSTANCE = new FileLoader();
     }
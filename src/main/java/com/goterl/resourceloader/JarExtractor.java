@@ -0,0 +1,275 @@
+/*
+ * Copyright (c) Terl Tech Ltd  • 04/04/2021, 00:07 • goterl.com
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v2.0. If a copy of the MPL was not distributed with this
+ * file, you can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package com.goterl.resourceloader;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.zip.ZipEntry;
+
+/**
+ * Extracts a single file or a single directory from a JAR.
+ * Rather than streaming through the whole archive, this uses the
+ * JAR's central directory to jump straight to the entries we want.
+ */
+final class JarExtractor {
+
+    private JarExtractor() {
+    }
+
+    /**
+     * Extract a file or directory from a JAR. The entry keeps its
+     * path inside {@code outputDir}, so extracting {@code /mac/libsodium.dylib}
+     * results in {@code outputDir/mac/libsodium.dylib}.
+     * @param jar The JAR to extract from.
+     * @param pathInJar A path to a file or directory inside the JAR. An
+     *                  empty path extracts the whole JAR.
+     * @param outputDir Where to extract to.
+     * @return The extracted file or directory.
+     * @throws IOException If the JAR could not be read or the entry could not be written.
+     */
+    static File extract(File jar, String pathInJar, File outputDir) throws IOException {
+        Path root = outputDir.toPath().toAbsolutePath().normalize();
+        Files.createDirectories(root);
+
+        try (FileChannel channel = FileChannel.open(jar.toPath(), StandardOpenOption.READ)) {
+            ZipDirectory directory = ZipDirectory.read(jar.toPath(), channel, 0, channel.size());
+            return extract(directory, pathInJar, root);
+        }
+    }
+
+    /**
+     * Extract a file or directory from an archive whose
+     * central directory has already been read.
+     * @param directory The archive's central directory.
+     * @param pathInJar A path to a file or directory inside the archive.
+     * @param root Where to extract to.
+     * @return The extracted file or directory.
+     * @throws IOException If the archive could not be read or the entry could not be written.
+     */
+    static File extract(ZipDirectory directory, String pathInJar, Path root) throws IOException {
+        String name = stripSlashes(pathInJar);
+        Metrics.Extraction extraction = Metrics.extraction(name, directory.kind());
+        ZipDirectory.Entry target = name.isEmpty() ? null : directory.find(name);
+        if (target != null && !target.isDirectory()) {
+            extraction.add(writeEntry(directory, target, resolve(root, target.name)));
+        } else {
+            // Not a file, so treat it as a directory and
+            // extract everything underneath it.
+            String prefix = name.isEmpty() ? "" : name + "/";
+            for (ZipDirectory.Entry entry : directory.entriesUnder(prefix)) {
+                if (entry.isDirectory()) {
+                    Files.createDirectories(resolve(root, entry.name));
+                } else {
+                    extraction.add(writeEntry(directory, entry, resolve(root, entry.name)));
+                }
+            }
+        }
+        extraction.end();
+        return resolve(root, name).toFile();
+    }
+
+    /**
+     * Extract many files and directories from an archive in one go.
+     * Files are written in the order they appear in the archive, so the
+     * archive is read from front to back. A file or directory that could
+     * not be extracted is reported to {@code onFailure} and the rest
+     * are still extracted.
+     * @param directory The archive's central directory.
+     * @param pathsInJar A map of keys to the paths inside the archive to extract.
+     * @param root Where to extract to.
+     * @param onFailure Told about every key that could not be extracted.
+     * @return The extracted files and directories by key.
+     */
+    static Map<String, File> extractAll(ZipDirectory directory,
+                                        Map<String, String> pathsInJar,
+                                        Path root,
+                                        BiConsumer<String, Exception> onFailure) {
+        Map<String, File> extracted = new LinkedHashMap<>();
+        List<ZipDirectory.Entry> toWrite = new ArrayList<>();
+        Map<ZipDirectory.Entry, List<String>> keysByEntry = new HashMap<>();
+        Map<String, String> prefixes = new LinkedHashMap<>();
+
+        for (Map.Entry<String, String> request : pathsInJar.entrySet()) {
+            String key = request.getKey();
+            String name = stripSlashes(request.getValue());
+            try {
+                extracted.put(key, resolve(root, name).toFile());
+            } catch (IOException e) {
+                onFailure.accept(key, e);
+                continue;
+            }
+            ZipDirectory.Entry entry = name.isEmpty() ? null : directory.find(name);
+            if (entry != null && !entry.isDirectory()) {
+                if (!keysByEntry.containsKey(entry)) {
+                    toWrite.add(entry);
+                }
+                keysByEntry.computeIfAbsent(entry, e -> new ArrayList<>()).add(key);
+            } else {
+                prefixes.put(key, name.isEmpty() ? "" : name + "/");
+            }
+        }
+
+        // Directories only look at the entries underneath them.
+        if (!prefixes.isEmpty()) {
+            Set<String> found = new HashSet<>();
+            for (Map.Entry<String, String> prefix : prefixes.entrySet()) {
+                for (ZipDirectory.Entry entry : directory.entriesUnder(prefix.getValue())) {
+                    found.add(prefix.getKey());
+                    if (!entry.isDirectory()) {
+                        if (!keysByEntry.containsKey(entry)) {
+                            toWrite.add(entry);
+                        }
+                        keysByEntry.computeIfAbsent(entry, e -> new ArrayList<>()).add(prefix.getKey());
+                    }
+                }
+            }
+            for (Map.Entry<String, String> prefix : prefixes.entrySet()) {
+                String key = prefix.getKey();
+                if (found.contains(key)) {
+                    try {
+                        Files.createDirectories(extracted.get(key).toPath());
+                    } catch (IOException e) {
+                        extracted.remove(key);
+                        onFailure.accept(key, e);
+                    }
+                } else {
+                    extracted.remove(key);
+                    onFailure.accept(key, new FileNotFoundException(pathsInJar.get(key) + " does not exist"));
+                }
+            }
+        }
+
+        Metrics.Extraction extraction = Metrics.extraction(pathsInJar.values(), directory.kind());
+        toWrite.sort(Comparator.comparingLong(entry -> entry.localOffset));
+        for (ZipDirectory.Entry entry : toWrite) {
+            try {
+                extraction.add(writeEntry(directory, entry, resolve(root, entry.name)));
+            } catch (IOException e) {
+                for (String key : keysByEntry.get(entry)) {
+                    if (extracted.remove(key) != null) {
+                        onFailure.accept(key, e);
+                    }
+                }
+            }
+        }
+        extraction.end();
+        return extracted;
+    }
+
+    /**
+     * Extract every file whose name matches {@code pattern}. Only
+     * the entries under the pattern's literal prefix are looked at.
+     * @param directory The archive's central directory.
+     * @param pattern Which entries to extract.
+     * @param root Where to extract to.
+     * @param onWritten Told about each file as soon as it has been written.
+     * @return The extracted files in name order.
+     * @throws IOException If an entry could not be written.
+     */
+    static List<File> extractMatching(ZipDirectory directory,
+                                      ResourcePattern pattern,
+                                      Path root,
+                                      WrittenListener onWritten) throws IOException {
+        List<ZipDirectory.Entry> toWrite = new ArrayList<>();
+        for (ZipDirectory.Entry entry : directory.entriesUnder(pattern.prefix)) {
+            if (!entry.isDirectory() && pattern.matches(entry.name)) {
+                toWrite.add(entry);
+            }
+        }
+        List<File> extracted = new ArrayList<>(toWrite.size());
+        for (ZipDirectory.Entry entry : toWrite) {
+            extracted.add(resolve(root, entry.name).toFile());
+        }
+
+        Metrics.Extraction extraction = Metrics.extraction(pattern, directory.kind());
+        toWrite.sort(Comparator.comparingLong(entry -> entry.localOffset));
+        for (ZipDirectory.Entry entry : toWrite) {
+            Path target = resolve(root, entry.name);
+            extraction.add(writeEntry(directory, entry, target));
+            onWritten.written(target);
+        }
+        extraction.end();
+        return extracted;
+    }
+
+    /**
+     * Write a single entry to {@code target}. STORED entries are
+     * copied straight from the archive's channel with
+     * {@link FileChannel#transferTo}, which lets the OS copy the bytes
+     * without them passing through the heap.
+     * @param directory The archive's central directory.
+     * @param entry The entry to write.
+     * @param target Where to write the entry to.
+     * @return How many bytes were written.
+     * @throws IOException If the entry could not be read or written.
+     */
+    static long writeEntry(ZipDirectory directory, ZipDirectory.Entry entry, Path target) throws IOException {
+        Files.createDirectories(target.getParent());
+        if (entry.method == ZipEntry.STORED) {
+            try (FileChannel out = FileChannel.open(target,
+                    StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                directory.transferTo(entry, out);
+            }
+            return entry.size;
+        }
+        try (InputStream in = directory.openStream(entry)) {
+            return Files.copy(in, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Resolve an entry name against the output directory, making
+     * sure a malicious entry such as {@code ../../etc/passwd} cannot
+     * escape it.
+     */
+    static Path resolve(Path root, String entryName) throws IOException {
+        Path target = root.resolve(entryName).normalize();
+        if (!target.startsWith(root)) {
+            throw new IOException("Entry '" + entryName + "' is outside of the target directory");
+        }
+        return target;
+    }
+
+    /**
+     * Called for each file as soon as it has been extracted.
+     */
+    interface WrittenListener {
+        void written(Path file) throws IOException;
+    }
+
+    static String stripSlashes(String path) {
+        int start = 0;
+        int end = path.length();
+        while (start < end && path.charAt(start) == '/') {
+            start++;
+        }
+        while (end > start && path.charAt(end - 1) == '/') {
+            end--;
+        }
+        return path.substring(start, end);
+    }
+}
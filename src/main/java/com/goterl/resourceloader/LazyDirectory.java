@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) Terl Tech Ltd  • 04/04/2021, 00:07 • goterl.com
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v2.0. If a copy of the MPL was not distributed with this
+ * file, you can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package com.goterl.resourceloader;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A directory from the resources folder whose files are only
+ * extracted, or copied, the first time each one is asked for. Get
+ * one from {@link FileLoader#loadLazily(String, Class)}.
+ * <pre>
+ * LazyDirectory templates = FileLoader.get().loadLazily("templates", Main.class);
+ * File page = templates.getFile("emails/welcome.html");
+ * </pre>
+ * Only the directory's listing is read up front, which in a JAR
+ * comes from its central directory. Every file is extracted into one
+ * temporary directory at its path relative to the resources folder,
+ * not to this directory, so {@code emails/welcome.html} above ends up
+ * at {@code <temp dir>/templates/emails/welcome.html} and files that
+ * are used together end up next to each other.
+ */
+public final class LazyDirectory {
+
+    private final ResourceLoader loader;
+    private final String relativePath;
+    private final Set<PosixFilePermission> permissions;
+    private final Class outsideClass;
+    private final List<String> names;
+    private final Set<String> nameSet;
+
+    // Files that have been asked for. Each future completes once the
+    // file has been extracted, so concurrent callers asking for the
+    // same file all wait on the same extraction.
+    private final ConcurrentMap<String, CompletableFuture<File>> files = new ConcurrentHashMap<>();
+
+    private File outputDir;
+
+    LazyDirectory(ResourceLoader loader,
+                  String relativePath,
+                  Set<PosixFilePermission> permissions,
+                  Class outsideClass) throws IOException, URISyntaxException {
+        this.loader = loader;
+        this.relativePath = JarExtractor.stripSlashes(relativePath);
+        this.permissions = Set.copyOf(permissions);
+        this.outsideClass = outsideClass;
+        String prefix = this.relativePath.isEmpty() ? "" : this.relativePath + "/";
+        List<String> names = new ArrayList<>();
+        for (String path : loader.list(this.relativePath, outsideClass)) {
+            names.add(path.substring(prefix.length()));
+        }
+        this.names = Collections.unmodifiableList(names);
+        this.nameSet = new HashSet<>(names);
+    }
+
+    /**
+     * @return The directory's path relative to the resources folder.
+     */
+    public String getRelativePath() {
+        return relativePath;
+    }
+
+    /**
+     * @return The paths of every file in the directory and its
+     * subdirectories, relative to the directory, in order. Nothing
+     * is extracted to list them.
+     */
+    public List<String> list() {
+        return names;
+    }
+
+    /**
+     * @param name A path relative to the directory, such as {@code emails/welcome.html}.
+     * @return True if the directory has such a file.
+     */
+    public boolean contains(String name) {
+        return nameSet.contains(JarExtractor.stripSlashes(name));
+    }
+
+    /**
+     * @param name A path relative to the directory, such as {@code emails/welcome.html}.
+     * @return True if the file has already been extracted.
+     */
+    public boolean isLoaded(String name) {
+        CompletableFuture<File> loading = files.get(JarExtractor.stripSlashes(name));
+        return loading != null && loading.isDone() && !loading.isCompletedExceptionally();
+    }
+
+    /**
+     * Get a file, extracting it if this is the first time it has been
+     * asked for. Asking again returns the same file, as long as it
+     * still exists.
+     * @param name A path relative to the directory, such as {@code emails/welcome.html}.
+     * @return The file.
+     * @throws FileNotFoundException If there is no such file in the directory.
+     * @throws IOException If the file could not be extracted.
+     * @throws URISyntaxException If cannot find the resource file.
+     */
+    public File getFile(String name) throws IOException, URISyntaxException {
+        String file = JarExtractor.stripSlashes(name);
+        if (!nameSet.contains(file)) {
+            throw new FileNotFoundException(name + " is not a file in " + relativePath);
+        }
+        String resource = relativePath.isEmpty() ? file : relativePath + "/" + file;
+        while (true) {
+            CompletableFuture<File> loading = new CompletableFuture<>();
+            CompletableFuture<File> existing = files.putIfAbsent(file, loading);
+            if (existing == null) {
+                Metrics.cache(LoaderMetrics.Cache.LOADED_FILES, resource, false);
+                try {
+                    File loaded = loader.setPermissions(loader.copyInto(outputDir(), resource, outsideClass), permissions);
+                    loading.complete(loaded);
+                    return loaded;
+                } catch (IOException | URISyntaxException | RuntimeException | Error e) {
+                    // Don't remember failures, the next caller should try again.
+                    files.remove(file, loading);
+                    loading.completeExceptionally(e);
+                    throw e;
+                }
+            }
+            File loaded = FileLoader.await(existing);
+            if (loaded.exists()) {
+                Metrics.cache(LoaderMetrics.Cache.LOADED_FILES, resource, true);
+                return loaded;
+            }
+            // Someone deleted it, so load it again.
+            files.remove(file, existing);
+        }
+    }
+
+    /**
+     * @param name A path relative to the directory, such as {@code emails/welcome.html}.
+     * @return The file.
+     * @throws IOException If the file could not be extracted.
+     * @throws URISyntaxException If cannot find the resource file.
+     * @see #getFile(String)
+     */
+    public Path getPath(String name) throws IOException, URISyntaxException {
+        return getFile(name).toPath();
+    }
+
+    private synchronized File outputDir() throws IOException {
+        if (outputDir == null) {
+            outputDir = ResourceLoader.createMainTempDirectory();
+        }
+        return outputDir;
+    }
+
+    @Override
+    public String toString() {
+        return relativePath + " (" + files.size() + " of " + names.size() + " files loaded)";
+    }
+}
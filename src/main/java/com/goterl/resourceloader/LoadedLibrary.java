@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) Terl Tech Ltd  • 04/04/2021, 00:07 • goterl.com
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v2.0. If a copy of the MPL was not distributed with this
+ * file, you can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package com.goterl.resourceloader;
+
+/**
+ * A shared library that {@link SharedLibraryLoader} has
+ * registered with a class.
+ */
+public final class LoadedLibrary {
+
+    private final String name;
+    private final Class registeredClass;
+    private final String path;
+
+    LoadedLibrary(String name, Class registeredClass, String path) {
+        this.name = name;
+        this.registeredClass = registeredClass;
+        this.path = path;
+    }
+
+    /**
+     * @return The relative path the library was loaded from, or
+     * the library's name if it was a system library.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return The class the library's functions were registered with.
+     */
+    public Class getRegisteredClass() {
+        return registeredClass;
+    }
+
+    /**
+     * @return The absolute path the library was registered from, or
+     * the library's name if it was a system library.
+     */
+    public String getPath() {
+        return path;
+    }
+
+    @Override
+    public String toString() {
+        return name + " (" + path + ") registered with " + registeredClass.getName();
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) Terl Tech Ltd  • 04/04/2021, 00:07 • goterl.com
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v2.0. If a copy of the MPL was not distributed with this
+ * file, you can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package com.goterl.resourceloader;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A file or directory that {@link FileLoader#open(String, Class)} has
+ * loaded. Everyone who opens the same resource while it is open shares
+ * one copy. Once every handle to it has been closed, the copy is deleted
+ * straight away rather than when the JVM exits.
+ * <pre>
+ * try (LoadedResource resource = FileLoader.get().open("model.bin", Main.class)) {
+ *     process(resource.getFile());
+ * }
+ * </pre>
+ * Files in the persistent cache, see
+ * {@link ResourceLoader#enablePersistentCache()}, are never deleted.
+ */
+public final class LoadedResource implements AutoCloseable {
+
+    private final FileLoader.OpenResource shared;
+    private final File file;
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    LoadedResource(FileLoader.OpenResource shared, File file) {
+        this.shared = shared;
+        this.file = file;
+    }
+
+    /**
+     * @return The loaded file or directory.
+     * @throws IllegalStateException If this handle has been closed.
+     */
+    public File getFile() {
+        if (closed.get()) {
+            throw new IllegalStateException(file + " has been closed");
+        }
+        return file;
+    }
+
+    /**
+     * @return The loaded file or directory.
+     * @throws IllegalStateException If this handle has been closed.
+     */
+    public Path toPath() {
+        return getFile().toPath();
+    }
+
+    /**
+     * @return True until {@link #close()} is called.
+     */
+    public boolean isOpen() {
+        return !closed.get();
+    }
+
+    /**
+     * Give up this handle. If it was the last one open, the loaded
+     * copy is deleted. Closing a handle more than once does nothing.
+     */
+    @Override
+    public void close() {
+        if (closed.compareAndSet(false, true)) {
+            shared.release();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return (isOpen() ? "" : "closed ") + file;
+    }
+}
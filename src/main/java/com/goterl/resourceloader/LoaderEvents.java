@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) Terl Tech Ltd  • 04/04/2021, 00:07 • goterl.com
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v2.0. If a copy of the MPL was not distributed with this
+ * file, you can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package com.goterl.resourceloader;
+
+/**
+ * Java Flight Recorder events for extracting resources and registering
+ * shared libraries. Both are disabled by default. Turn them on in a
+ * recording's settings, for example:
+ * <pre>
+ * jfr configure com.goterl.resourceloader.Extraction#enabled=true \
+ *     com.goterl.resourceloader.NativeLibrary#enabled=true --output loader.jfc
+ * java -XX:StartFlightRecording:settings=default,settings=loader.jfc ...
+ * </pre>
+ * While they're disabled, beginning an event only checks that it's
+ * disabled. On platforms without JFR, such as Android, nothing is recorded.
+ */
+final class LoaderEvents {
+
+    private static final boolean AVAILABLE = isAvailable();
+
+    private LoaderEvents() {
+    }
+
+    /**
+     * @return An event that has begun, or null if extraction
+     * events aren't being recorded.
+     */
+    static ExtractionEvent beginExtraction() {
+        if (!AVAILABLE) {
+            return null;
+        }
+        ExtractionEvent event = new ExtractionEvent();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+
+    static void commit(ExtractionEvent event,
+                       Object resource,
+                       ResourceLocation.Kind kind,
+                       int entries,
+                       long bytes,
+                       long lockWait) {
+        if (event == null) {
+            return;
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.resource = String.valueOf(resource);
+            event.sourceKind = kind.name();
+            event.entries = entries;
+            event.bytesWritten = bytes;
+            event.lockWait = lockWait;
+            event.commit();
+        }
+    }
+
+    /**
+     * @return An event that has begun, or null if native
+     * library events aren't being recorded.
+     */
+    static NativeLibraryEvent beginRegistration() {
+        if (!AVAILABLE) {
+            return null;
+        }
+        NativeLibraryEvent event = new NativeLibraryEvent();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+
+    static void commit(NativeLibraryEvent event,
+                       String resource,
+                       String kind,
+                       int classes,
+                       long bytes,
+                       long lockWait) {
+        if (event == null) {
+            return;
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.resource = resource;
+            event.sourceKind = kind;
+            event.entries = classes;
+            event.bytesWritten = bytes;
+            event.lockWait = lockWait;
+            event.commit();
+        }
+    }
+
+    private static boolean isAvailable() {
+        try {
+            Class.forName("jdk.jfr.Event", false, LoaderEvents.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+}
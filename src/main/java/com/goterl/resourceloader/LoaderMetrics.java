@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) Terl Tech Ltd  • 04/04/2021, 00:07 • goterl.com
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v2.0. If a copy of the MPL was not distributed with this
+ * file, you can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package com.goterl.resourceloader;
+
+/**
+ * Told how long each phase of loading a resource took and how
+ * much was extracted, so it can be passed on to a metrics library
+ * such as Micrometer. Install one with
+ * {@link ResourceLoader#setMetrics(LoaderMetrics)}. When none is
+ * installed, nothing is timed or counted.
+ * <p>
+ * Every method does nothing by default, so only override the ones you
+ * need. Methods are called on the thread doing the loading, possibly
+ * many threads at once, so they should be quick and thread safe. An
+ * exception thrown from a method is logged and otherwise ignored.
+ * </p>
+ */
+public interface LoaderMetrics {
+
+    enum Phase {
+        /**
+         * Working out where a class was loaded from.
+         * The resource is the class's name.
+         */
+        CODE_SOURCE,
+        /**
+         * Checking whether a class was loaded from a JAR.
+         * The resource is the class's name.
+         */
+        JAR_DETECTION,
+        /**
+         * Opening an archive and reading its central directory.
+         * The resource is the archive's path on disk.
+         */
+        ARCHIVE_OPEN,
+        /**
+         * Writing files out of an archive. The resource is
+         * the path inside the archive.
+         */
+        EXTRACTION,
+        /**
+         * Copying files that aren't in an archive. The
+         * resource is the path relative to the resources folder.
+         */
+        COPY,
+        /**
+         * Setting permissions on a loaded file or directory.
+         * The resource is the loaded file's path.
+         */
+        PERMISSIONS,
+        /**
+         * Registering a shared library with a class through JNA.
+         * The resource is the library's path on disk.
+         */
+        NATIVE_REGISTER
+    }
+
+    enum Cache {
+        /**
+         * Central directories that have already been read.
+         * The resource is the archive's path on disk.
+         */
+        ARCHIVE_INDEXES,
+        /**
+         * The persistent cache, see {@link ResourceLoader#enablePersistentCache()}.
+         * The resource is the name of the entry in the archive.
+         */
+        PERSISTENT,
+        /**
+         * Files and directories that {@link FileLoader} has already loaded.
+         * The resource is the path relative to the resources folder.
+         */
+        LOADED_FILES,
+        /**
+         * Libraries that {@link SharedLibraryLoader} has already registered.
+         * The resource is the path relative to the resources folder.
+         */
+        LIBRARIES
+    }
+
+    /**
+     * A phase finished.
+     * @param phase Which phase.
+     * @param resource What the phase worked on. See each {@link Phase}.
+     * @param nanos How long it took.
+     */
+    default void phase(Phase phase, String resource, long nanos) {
+    }
+
+    /**
+     * Files were written out of an archive. This is
+     * called just before {@link Phase#EXTRACTION} is.
+     * @param resource The path inside the archive.
+     * @param entries How many files were written.
+     * @param bytes How many bytes were written in total.
+     */
+    default void extracted(String resource, int entries, long bytes) {
+    }
+
+    /**
+     * Something was found in a cache.
+     * @param cache Which cache.
+     * @param resource What was looked up. See each {@link Cache}.
+     */
+    default void cacheHit(Cache cache, String resource) {
+    }
+
+    /**
+     * Something was not found in a cache, so it had to be loaded.
+     * @param cache Which cache.
+     * @param resource What was looked up. See each {@link Cache}.
+     */
+    default void cacheMiss(Cache cache, String resource) {
+    }
+}
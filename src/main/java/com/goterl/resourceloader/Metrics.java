@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) Terl Tech Ltd  • 04/04/2021, 00:07 • goterl.com
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v2.0. If a copy of the MPL was not distributed with this
+ * file, you can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package com.goterl.resourceloader;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Passes timings and counts on to the installed {@link LoaderMetrics},
+ * and to the JFR events in {@link LoaderEvents}. With nothing installed
+ * and the events disabled, the clock is never read.
+ */
+final class Metrics {
+
+    private static final Logger logger = LoggerFactory.getLogger("ResourceLoader");
+
+    private static volatile LoaderMetrics listener;
+
+    private Metrics() {
+    }
+
+    static void set(LoaderMetrics metrics) {
+        listener = metrics;
+    }
+
+    static LoaderMetrics get() {
+        return listener;
+    }
+
+    /**
+     * @return When a phase started, or 0 if nobody is listening.
+     */
+    static long start() {
+        return listener == null ? 0 : System.nanoTime();
+    }
+
+    /**
+     * @param phase The phase that finished.
+     * @param resource What the phase worked on.
+     * @param start What {@link #start()} returned when the phase started.
+     */
+    static void end(LoaderMetrics.Phase phase, Object resource, long start) {
+        LoaderMetrics metrics = listener;
+        if (metrics == null || start == 0) {
+            return;
+        }
+        long nanos = System.nanoTime() - start;
+        try {
+            metrics.phase(phase, String.valueOf(resource), nanos);
+        } catch (RuntimeException e) {
+            logger.debug("Metrics listener failed", e);
+        }
+    }
+
+    static void cache(LoaderMetrics.Cache cache, Object resource, boolean hit) {
+        LoaderMetrics metrics = listener;
+        if (metrics == null) {
+            return;
+        }
+        try {
+            if (hit) {
+                metrics.cacheHit(cache, String.valueOf(resource));
+            } else {
+                metrics.cacheMiss(cache, String.valueOf(resource));
+            }
+        } catch (RuntimeException e) {
+            logger.debug("Metrics listener failed", e);
+        }
+    }
+
+    /**
+     * Start counting what an extraction or a copy writes.
+     * @param resource The path inside the archive, or relative
+     *                 to the resources folder for a copy.
+     * @param kind Where the files come from. A copy is
+     *             {@link ResourceLocation.Kind#DIRECTORY}.
+     * @return The extraction to count on. Counting costs nothing if
+     * nobody is listening and the JFR event is disabled.
+     */
+    static Extraction extraction(Object resource, ResourceLocation.Kind kind) {
+        ExtractionEvent event = LoaderEvents.beginExtraction();
+        if (listener == null && event == null) {
+            return Extraction.NONE;
+        }
+        return new Extraction(resource, kind, System.nanoTime(), event);
+    }
+
+    static final class Extraction {
+        private static final Extraction NONE = new Extraction(null, null, 0, null);
+
+        private final Object resource;
+        private final ResourceLocation.Kind kind;
+        private final long start;
+        private final ExtractionEvent event;
+        private int entries;
+        private long bytes;
+        private long lockWait;
+
+        private Extraction(Object resource, ResourceLocation.Kind kind, long start, ExtractionEvent event) {
+            this.resource = resource;
+            this.kind = kind;
+            this.start = start;
+            this.event = event;
+        }
+
+        /**
+         * @param written How many bytes a file that was just written has.
+         */
+        void add(long written) {
+            if (this != NONE) {
+                entries++;
+                bytes += written;
+            }
+        }
+
+        /**
+         * @param nanos How long was spent waiting for someone
+         *              else who was writing the same files.
+         */
+        void waited(long nanos) {
+            if (this != NONE) {
+                lockWait += nanos;
+            }
+        }
+
+        void end() {
+            if (this == NONE) {
+                return;
+            }
+            LoaderEvents.commit(event, resource, kind, entries, bytes, lockWait);
+            if (kind == ResourceLocation.Kind.DIRECTORY) {
+                Metrics.end(LoaderMetrics.Phase.COPY, resource, start);
+                return;
+            }
+            LoaderMetrics metrics = listener;
+            if (metrics != null) {
+                try {
+                    metrics.extracted(String.valueOf(resource), entries, bytes);
+                } catch (RuntimeException e) {
+                    logger.debug("Metrics listener failed", e);
+                }
+            }
+            Metrics.end(LoaderMetrics.Phase.EXTRACTION, resource, start);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) Terl Tech Ltd  • 04/04/2021, 00:07 • goterl.com
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v2.0. If a copy of the MPL was not distributed with this
+ * file, you can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package com.goterl.resourceloader;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * A shared library registered with one or more classes through JNA.
+ * Disabled by default, see {@link LoaderEvents}.
+ */
+@Name("com.goterl.resourceloader.NativeLibrary")
+@Label("Native Library Registration")
+@Category("Resource Loader")
+@Description("A shared library registered with classes through JNA")
+@Enabled(false)
+@StackTrace(false)
+final class NativeLibraryEvent extends Event {
+
+    @Label("Resource")
+    @Description("The library's path relative to the resources folder, or its name for a system library")
+    String resource;
+
+    @Label("Source Kind")
+    @Description("DIRECTORY, JAR, NESTED_JAR, NESTED_URL or SYSTEM")
+    String sourceKind;
+
+    @Label("Bytes Written")
+    @Description("The size of the library that was extracted")
+    @DataAmount
+    long bytesWritten;
+
+    @Label("Entries")
+    @Description("How many classes the library was registered with")
+    int entries;
+
+    @Label("Lock Wait")
+    @Description("Time spent waiting for another thread loading the same library")
+    @Timespan
+    long lockWait;
+}
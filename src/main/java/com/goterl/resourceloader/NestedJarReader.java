@@ -0,0 +1,463 @@
+/*
+ * Copyright (c) Terl Tech Ltd  • 04/04/2021, 00:07 • goterl.com
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v2.0. If a copy of the MPL was not distributed with this
+ * file, you can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package com.goterl.resourceloader;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Extracts files from JARs that are inside other JARs, such as
+ * {@code app.jar/BOOT-INF/lib/inner.jar/file.txt}, without writing the
+ * inner JARs to disk. A STORED inner JAR is read in place from its
+ * byte range in the outer JAR. A compressed inner JAR is read straight
+ * from the outer entry's stream. Only the final target is ever written.
+ */
+final class NestedJarReader {
+
+    private static final Logger logger = LoggerFactory.getLogger("ResourceLoader");
+
+    private NestedJarReader() {
+    }
+
+    /**
+     * Extract a file or directory from a nested JAR.
+     * @param outerJar The JAR on disk.
+     * @param nestedJars The names of the JARs to descend into, outermost first.
+     * @param pathInJar A path to a file or directory inside the innermost JAR.
+     * @param outputDir Where to extract to.
+     * @return The extracted file or directory.
+     * @throws IOException If one of the JARs could not be read or the target could not be written.
+     */
+    static File extract(File outerJar, List<String> nestedJars, String pathInJar, File outputDir) throws IOException {
+        String name = JarExtractor.stripSlashes(pathInJar);
+        Path root = outputDir.toPath().toAbsolutePath().normalize();
+        Files.createDirectories(root);
+
+        try (FileChannel channel = FileChannel.open(outerJar.toPath(), StandardOpenOption.READ)) {
+            Layer layer = descend(channel, outerJar, nestedJars);
+            if (layer.stream != null) {
+                try (ZipInputStream in = layer.stream) {
+                    return extractFromStream(in, name, root);
+                }
+            }
+            return JarExtractor.extract(layer.directory, name, root);
+        }
+    }
+
+    /**
+     * Extract many files and directories from a (possibly nested) JAR,
+     * opening the JAR only once.
+     * @param outerJar The JAR on disk.
+     * @param nestedJars The names of the JARs to descend into, outermost first.
+     * @param pathsInJar A map of keys to the paths inside the innermost JAR to extract.
+     * @param outputDir Where to extract to.
+     * @param onFailure Told about every key that could not be extracted.
+     * @return The extracted files and directories by key.
+     * @throws IOException If one of the JARs could not be read at all.
+     */
+    static Map<String, File> extractAll(File outerJar,
+                                        List<String> nestedJars,
+                                        Map<String, String> pathsInJar,
+                                        File outputDir,
+                                        BiConsumer<String, Exception> onFailure) throws IOException {
+        Path root = outputDir.toPath().toAbsolutePath().normalize();
+        Files.createDirectories(root);
+
+        try (FileChannel channel = FileChannel.open(outerJar.toPath(), StandardOpenOption.READ)) {
+            Layer layer = descend(channel, outerJar, nestedJars);
+            if (layer.stream != null) {
+                try (ZipInputStream in = layer.stream) {
+                    return extractAllFromStream(in, pathsInJar, root, onFailure);
+                }
+            }
+            return JarExtractor.extractAll(layer.directory, pathsInJar, root, onFailure);
+        }
+    }
+
+    /**
+     * Extract every file inside a (possibly nested) JAR that
+     * matches {@code pattern}, in one pass.
+     * @param outerJar The JAR on disk.
+     * @param nestedJars The names of the JARs to descend into, outermost first.
+     * @param pattern Which entries to extract.
+     * @param outputDir Where to extract to.
+     * @param onWritten Told about each file as soon as it has been written.
+     * @return The extracted files in name order.
+     * @throws IOException If one of the JARs could not be read or a file could not be written.
+     */
+    static List<File> extractMatching(File outerJar,
+                                      List<String> nestedJars,
+                                      ResourcePattern pattern,
+                                      File outputDir,
+                                      JarExtractor.WrittenListener onWritten) throws IOException {
+        Path root = outputDir.toPath().toAbsolutePath().normalize();
+        Files.createDirectories(root);
+
+        try (FileChannel channel = FileChannel.open(outerJar.toPath(), StandardOpenOption.READ)) {
+            Layer layer = descend(channel, outerJar, nestedJars);
+            if (layer.stream == null) {
+                return JarExtractor.extractMatching(layer.directory, pattern, root, onWritten);
+            }
+            List<File> extracted = new ArrayList<>();
+            Metrics.Extraction extraction = Metrics.extraction(pattern, ResourceLocation.Kind.NESTED_JAR);
+            try (ZipInputStream in = layer.stream) {
+                for (ZipEntry entry = in.getNextEntry(); entry != null; entry = in.getNextEntry()) {
+                    String name = entry.getName();
+                    if (entry.isDirectory() || !name.startsWith(pattern.prefix) || !pattern.matches(name)) {
+                        continue;
+                    }
+                    Path target = JarExtractor.resolve(root, name);
+                    Files.createDirectories(target.getParent());
+                    extraction.add(Files.copy(in, target, StandardCopyOption.REPLACE_EXISTING));
+                    onWritten.written(target);
+                    extracted.add(target.toFile());
+                }
+            }
+            extraction.end();
+            extracted.sort(null);
+            return extracted;
+        }
+    }
+
+    /**
+     * Open a file inside a (possibly nested) JAR without writing
+     * anything to disk.
+     * @param outerJar The JAR on disk.
+     * @param nestedJars The names of the JARs to descend into, outermost first.
+     * @param pathInJar A path to a file inside the innermost JAR.
+     * @return The file's contents. Closing it closes the JAR.
+     * @throws IOException If one of the JARs could not be read or the file does not exist.
+     */
+    static InputStream openStream(File outerJar, List<String> nestedJars, String pathInJar) throws IOException {
+        String name = JarExtractor.stripSlashes(pathInJar);
+        FileChannel channel = FileChannel.open(outerJar.toPath(), StandardOpenOption.READ);
+        try {
+            Layer layer = descend(channel, outerJar, nestedJars);
+            InputStream in;
+            if (layer.stream != null) {
+                in = layer.stream;
+                if (!skipTo(layer.stream, name)) {
+                    throw new FileNotFoundException(name + " does not exist in " + outerJar);
+                }
+            } else {
+                ZipDirectory.Entry entry = layer.directory.find(name);
+                if (entry == null || entry.isDirectory()) {
+                    throw new FileNotFoundException(name + " does not exist in " + outerJar);
+                }
+                in = layer.directory.openStream(entry);
+            }
+            return new FilterInputStream(in) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        channel.close();
+                    }
+                }
+            };
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Map a file inside a (possibly nested) JAR in place. This only works
+     * if the file and every JAR it is in are STORED.
+     * @param outerJar The JAR on disk.
+     * @param nestedJars The names of the JARs to descend into, outermost first.
+     * @param pathInJar A path to a file inside the innermost JAR.
+     * @return A read-only buffer of the file's contents or null
+     * if the file is compressed.
+     * @throws IOException If one of the JARs could not be read or the file does not exist.
+     */
+    static MappedByteBuffer map(File outerJar, List<String> nestedJars, String pathInJar) throws IOException {
+        String name = JarExtractor.stripSlashes(pathInJar);
+        try (FileChannel channel = FileChannel.open(outerJar.toPath(), StandardOpenOption.READ)) {
+            Layer layer = descend(channel, outerJar, nestedJars);
+            if (layer.stream != null) {
+                layer.stream.close();
+                return null;
+            }
+            ZipDirectory.Entry entry = layer.directory.find(name);
+            if (entry == null || entry.isDirectory()) {
+                throw new FileNotFoundException(name + " does not exist in " + outerJar);
+            }
+            if (entry.method != ZipEntry.STORED) {
+                return null;
+            }
+            return layer.directory.map(entry);
+        }
+    }
+
+    /**
+     * Look up a file inside a (possibly nested) JAR without extracting
+     * anything. If every JAR on the way is STORED this only reads central
+     * directories. Otherwise the JARs are streamed up to the file, and
+     * the file is only read if its size and CRC aren't known up front.
+     * @param outerJar The JAR on disk.
+     * @param nestedJars The names of the JARs to descend into, outermost first.
+     * @param pathInJar A path to a file inside the innermost JAR.
+     * @return The file's entry or null if there is no such file.
+     * @throws IOException If one of the JARs could not be read.
+     */
+    static ZipDirectory.Entry find(File outerJar, List<String> nestedJars, String pathInJar) throws IOException {
+        String name = JarExtractor.stripSlashes(pathInJar);
+        try (FileChannel channel = FileChannel.open(outerJar.toPath(), StandardOpenOption.READ)) {
+            Layer layer = descend(channel, outerJar, nestedJars);
+            if (layer.stream == null) {
+                ZipDirectory.Entry entry = layer.directory.find(name);
+                return entry == null || entry.isDirectory() ? null : entry;
+            }
+            try (ZipInputStream in = layer.stream) {
+                int number = 0;
+                for (ZipEntry entry = in.getNextEntry(); entry != null; entry = in.getNextEntry(), number++) {
+                    if (entry.getName().equals(name) && !entry.isDirectory()) {
+                        return toEntry(number, entry, in);
+                    }
+                }
+                return null;
+            }
+        }
+    }
+
+    /**
+     * List the files inside a (possibly nested) JAR that
+     * start with {@code prefix}, without extracting anything.
+     * @param outerJar The JAR on disk.
+     * @param nestedJars The names of the JARs to descend into, outermost first.
+     * @param prefix A name prefix such as {@code lib/}.
+     * @return The names of the entries, including directories, in name order.
+     * @throws IOException If one of the JARs could not be read.
+     */
+    static List<String> list(File outerJar, List<String> nestedJars, String prefix) throws IOException {
+        List<String> names = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(outerJar.toPath(), StandardOpenOption.READ)) {
+            Layer layer = descend(channel, outerJar, nestedJars);
+            if (layer.stream == null) {
+                for (ZipDirectory.Entry entry : layer.directory.entriesUnder(prefix)) {
+                    names.add(entry.name);
+                }
+                return names;
+            }
+            try (ZipInputStream in = layer.stream) {
+                for (ZipEntry entry = in.getNextEntry(); entry != null; entry = in.getNextEntry()) {
+                    if (entry.getName().startsWith(prefix)) {
+                        names.add(entry.getName());
+                    }
+                }
+            }
+        }
+        Collections.sort(names);
+        return names;
+    }
+
+    /**
+     * A streamed entry only knows its size and CRC up front if its
+     * local header has them. If not, the only way to find out is to
+     * read it.
+     */
+    private static ZipDirectory.Entry toEntry(int number, ZipEntry entry, ZipInputStream in) throws IOException {
+        long size = entry.getSize();
+        long crc = entry.getCrc();
+        if (size < 0 || crc < 0) {
+            CRC32 checksum = new CRC32();
+            byte[] buffer = new byte[8192];
+            size = 0;
+            for (int read = in.read(buffer); read != -1; read = in.read(buffer)) {
+                checksum.update(buffer, 0, read);
+                size += read;
+            }
+            crc = checksum.getValue();
+        }
+        return new ZipDirectory.Entry(number, entry.getName(), entry.getMethod(), crc,
+                entry.getCompressedSize(), size, -1);
+    }
+
+    /**
+     * Go through each nested JAR in turn. We stay in random access
+     * mode for as long as the nested JARs are STORED. The first
+     * compressed one switches us over to streaming.
+     */
+    private static Layer descend(FileChannel channel, File outerJar, List<String> nestedJars) throws IOException {
+        ZipDirectory directory = ZipDirectory.read(outerJar.toPath(), channel, 0, channel.size());
+        for (int i = 0; i < nestedJars.size(); i++) {
+            String jarName = JarExtractor.stripSlashes(nestedJars.get(i));
+            ZipDirectory.Entry entry = directory.find(jarName);
+            if (entry == null) {
+                throw new FileNotFoundException(jarName + " does not exist in " + outerJar);
+            }
+            if (entry.method != ZipEntry.STORED) {
+                // The inner JAR is compressed so we can't seek
+                // into it. Stream through it instead.
+                logger.debug("Streaming {} from {}", jarName, outerJar);
+                ZipInputStream in = new ZipInputStream(directory.openStream(entry));
+                for (String innerJar : nestedJars.subList(i + 1, nestedJars.size())) {
+                    String innerName = JarExtractor.stripSlashes(innerJar);
+                    if (!skipTo(in, innerName)) {
+                        in.close();
+                        throw new FileNotFoundException(innerName + " does not exist in " + outerJar);
+                    }
+                    in = new ZipInputStream(in);
+                }
+                return new Layer(null, in);
+            }
+            logger.debug("Reading {} in place from {}", jarName, outerJar);
+            directory = ZipDirectory.read(outerJar.toPath(), channel, directory.dataOffset(entry), entry.size);
+        }
+        return new Layer(directory, null);
+    }
+
+    /**
+     * Move a stream forward to the start of a file's contents.
+     * @return False if the file is not there.
+     */
+    private static boolean skipTo(ZipInputStream in, String name) throws IOException {
+        for (ZipEntry entry = in.getNextEntry(); entry != null; entry = in.getNextEntry()) {
+            if (entry.getName().equals(name) && !entry.isDirectory()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Walk a JAR that can only be read front to back.
+     */
+    private static File extractFromStream(ZipInputStream in, String name, Path root) throws IOException {
+        String prefix = name.isEmpty() ? "" : name + "/";
+        Metrics.Extraction extraction = Metrics.extraction(name, ResourceLocation.Kind.NESTED_JAR);
+        for (ZipEntry entry = in.getNextEntry(); entry != null; entry = in.getNextEntry()) {
+            String entryName = entry.getName();
+            boolean isTarget = entryName.equals(name) && !entry.isDirectory();
+            if (!isTarget && !entryName.startsWith(prefix)) {
+                continue;
+            }
+            Path target = JarExtractor.resolve(root, entryName);
+            if (entry.isDirectory()) {
+                Files.createDirectories(target);
+                continue;
+            }
+            Files.createDirectories(target.getParent());
+            extraction.add(Files.copy(in, target, StandardCopyOption.REPLACE_EXISTING));
+            if (isTarget) {
+                break;
+            }
+        }
+        extraction.end();
+        return JarExtractor.resolve(root, name).toFile();
+    }
+
+    /**
+     * Walk a JAR that can only be read front to back, picking
+     * out every requested file and directory as we go.
+     */
+    private static Map<String, File> extractAllFromStream(ZipInputStream in,
+                                                          Map<String, String> pathsInJar,
+                                                          Path root,
+                                                          BiConsumer<String, Exception> onFailure)
+            throws IOException {
+        Map<String, List<String>> keysByName = new HashMap<>();
+        Map<String, String> prefixes = new LinkedHashMap<>();
+        for (Map.Entry<String, String> request : pathsInJar.entrySet()) {
+            String name = JarExtractor.stripSlashes(request.getValue());
+            keysByName.computeIfAbsent(name, n -> new ArrayList<>()).add(request.getKey());
+            prefixes.put(request.getKey(), name.isEmpty() ? "" : name + "/");
+        }
+
+        Set<String> found = new HashSet<>();
+        Map<String, Exception> failures = new LinkedHashMap<>();
+        Metrics.Extraction extraction = Metrics.extraction(pathsInJar.values(), ResourceLocation.Kind.NESTED_JAR);
+        for (ZipEntry entry = in.getNextEntry(); entry != null; entry = in.getNextEntry()) {
+            String entryName = entry.getName();
+            List<String> keys = new ArrayList<>();
+            if (!entry.isDirectory()) {
+                keys.addAll(keysByName.getOrDefault(entryName, Collections.emptyList()));
+            }
+            for (Map.Entry<String, String> prefix : prefixes.entrySet()) {
+                if (entryName.startsWith(prefix.getValue())) {
+                    keys.add(prefix.getKey());
+                }
+            }
+            if (keys.isEmpty()) {
+                continue;
+            }
+            found.addAll(keys);
+            try {
+                Path target = JarExtractor.resolve(root, entryName);
+                if (entry.isDirectory()) {
+                    Files.createDirectories(target);
+                } else {
+                    Files.createDirectories(target.getParent());
+                    extraction.add(Files.copy(in, target, StandardCopyOption.REPLACE_EXISTING));
+                }
+            } catch (IOException e) {
+                for (String key : keys) {
+                    failures.putIfAbsent(key, e);
+                }
+            }
+        }
+        extraction.end();
+
+        Map<String, File> extracted = new LinkedHashMap<>();
+        for (Map.Entry<String, String> request : pathsInJar.entrySet()) {
+            String key = request.getKey();
+            if (failures.containsKey(key)) {
+                onFailure.accept(key, failures.get(key));
+            } else if (!found.contains(key)) {
+                onFailure.accept(key, new FileNotFoundException(request.getValue() + " does not exist"));
+            } else {
+                try {
+                    extracted.put(key, JarExtractor.resolve(root, JarExtractor.stripSlashes(request.getValue())).toFile());
+                } catch (IOException e) {
+                    onFailure.accept(key, e);
+                }
+            }
+        }
+        return extracted;
+    }
+
+    /**
+     * The innermost JAR, either read in place or as a stream.
+     */
+    private static final class Layer {
+        final ZipDirectory directory;
+        final ZipInputStream stream;
+
+        Layer(ZipDirectory directory, ZipInputStream stream) {
+            this.directory = directory;
+            this.stream = stream;
+        }
+    }
+}
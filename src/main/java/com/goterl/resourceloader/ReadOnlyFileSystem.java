@@ -0,0 +1,451 @@
+/*
+ * Copyright (c) Terl Tech Ltd  • 04/04/2021, 00:07 • goterl.com
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v2.0. If a copy of the MPL was not distributed with this
+ * file, you can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package com.goterl.resourceloader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.AccessMode;
+import java.nio.file.CopyOption;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileStore;
+import java.nio.file.FileSystem;
+import java.nio.file.LinkOption;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.ProviderMismatchException;
+import java.nio.file.ReadOnlyFileSystemException;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.FileAttributeView;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.UserPrincipalLookupService;
+import java.nio.file.spi.FileSystemProvider;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A view of a file system that can only be read. Paths from the view
+ * belong to it, so writing through one throws
+ * {@link ReadOnlyFileSystemException} rather than reaching the file
+ * system underneath. Zip file systems honour the {@code accessMode}
+ * property on newer JDKs, but older ones like 21 ignore it and would
+ * write changes back into the JAR when they're closed.
+ */
+final class ReadOnlyFileSystem extends FileSystem {
+
+    private final FileSystem delegate;
+    private final Provider provider = new Provider();
+
+    private ReadOnlyFileSystem(FileSystem delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * @return {@code fileSystem} if it is already read-only,
+     * otherwise a read-only view of it.
+     */
+    static FileSystem of(FileSystem fileSystem) {
+        return fileSystem.isReadOnly() ? fileSystem : new ReadOnlyFileSystem(fileSystem);
+    }
+
+    @Override
+    public FileSystemProvider provider() {
+        return provider;
+    }
+
+    /**
+     * Does nothing, whoever made the view closes the file system underneath.
+     */
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public boolean isOpen() {
+        return delegate.isOpen();
+    }
+
+    @Override
+    public boolean isReadOnly() {
+        return true;
+    }
+
+    @Override
+    public String getSeparator() {
+        return delegate.getSeparator();
+    }
+
+    @Override
+    public Iterable<Path> getRootDirectories() {
+        List<Path> roots = new ArrayList<>();
+        for (Path root : delegate.getRootDirectories()) {
+            roots.add(wrap(root));
+        }
+        return roots;
+    }
+
+    @Override
+    public Iterable<FileStore> getFileStores() {
+        return delegate.getFileStores();
+    }
+
+    @Override
+    public Set<String> supportedFileAttributeViews() {
+        return delegate.supportedFileAttributeViews();
+    }
+
+    @Override
+    public Path getPath(String first, String... more) {
+        return wrap(delegate.getPath(first, more));
+    }
+
+    @Override
+    public PathMatcher getPathMatcher(String syntaxAndPattern) {
+        PathMatcher matcher = delegate.getPathMatcher(syntaxAndPattern);
+        return path -> matcher.matches(unwrap(path));
+    }
+
+    @Override
+    public UserPrincipalLookupService getUserPrincipalLookupService() {
+        return delegate.getUserPrincipalLookupService();
+    }
+
+    @Override
+    public WatchService newWatchService() throws IOException {
+        return delegate.newWatchService();
+    }
+
+    private ReadOnlyPath wrap(Path path) {
+        return path == null ? null : new ReadOnlyPath(path);
+    }
+
+    private Path unwrap(Path path) {
+        if (path instanceof ReadOnlyPath && ((ReadOnlyPath) path).fileSystem() == this) {
+            return ((ReadOnlyPath) path).delegate;
+        }
+        throw new ProviderMismatchException();
+    }
+
+    private static boolean writes(Set<? extends OpenOption> options) {
+        return options.contains(StandardOpenOption.WRITE)
+                || options.contains(StandardOpenOption.APPEND)
+                || options.contains(StandardOpenOption.DELETE_ON_CLOSE);
+    }
+
+    private final class ReadOnlyPath implements Path {
+        private final Path delegate;
+
+        private ReadOnlyPath(Path delegate) {
+            this.delegate = delegate;
+        }
+
+        private ReadOnlyFileSystem fileSystem() {
+            return ReadOnlyFileSystem.this;
+        }
+
+        @Override
+        public FileSystem getFileSystem() {
+            return ReadOnlyFileSystem.this;
+        }
+
+        @Override
+        public boolean isAbsolute() {
+            return delegate.isAbsolute();
+        }
+
+        @Override
+        public Path getRoot() {
+            return wrap(delegate.getRoot());
+        }
+
+        @Override
+        public Path getFileName() {
+            return wrap(delegate.getFileName());
+        }
+
+        @Override
+        public Path getParent() {
+            return wrap(delegate.getParent());
+        }
+
+        @Override
+        public int getNameCount() {
+            return delegate.getNameCount();
+        }
+
+        @Override
+        public Path getName(int index) {
+            return wrap(delegate.getName(index));
+        }
+
+        @Override
+        public Path subpath(int beginIndex, int endIndex) {
+            return wrap(delegate.subpath(beginIndex, endIndex));
+        }
+
+        @Override
+        public boolean startsWith(Path other) {
+            return other.getFileSystem() == ReadOnlyFileSystem.this && delegate.startsWith(unwrap(other));
+        }
+
+        @Override
+        public boolean endsWith(Path other) {
+            return other.getFileSystem() == ReadOnlyFileSystem.this && delegate.endsWith(unwrap(other));
+        }
+
+        @Override
+        public Path normalize() {
+            return wrap(delegate.normalize());
+        }
+
+        @Override
+        public Path resolve(Path other) {
+            return wrap(delegate.resolve(unwrap(other)));
+        }
+
+        @Override
+        public Path relativize(Path other) {
+            return wrap(delegate.relativize(unwrap(other)));
+        }
+
+        @Override
+        public URI toUri() {
+            return delegate.toUri();
+        }
+
+        @Override
+        public Path toAbsolutePath() {
+            return wrap(delegate.toAbsolutePath());
+        }
+
+        @Override
+        public Path toRealPath(LinkOption... options) throws IOException {
+            return wrap(delegate.toRealPath(options));
+        }
+
+        @Override
+        public WatchKey register(WatchService watcher, WatchEvent.Kind<?>[] events, WatchEvent.Modifier... modifiers)
+                throws IOException {
+            return delegate.register(watcher, events, modifiers);
+        }
+
+        @Override
+        public int compareTo(Path other) {
+            return delegate.compareTo(unwrap(other));
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof ReadOnlyPath
+                    && ((ReadOnlyPath) o).fileSystem() == ReadOnlyFileSystem.this
+                    && delegate.equals(((ReadOnlyPath) o).delegate);
+        }
+
+        @Override
+        public int hashCode() {
+            return delegate.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return delegate.toString();
+        }
+    }
+
+    private final class Provider extends FileSystemProvider {
+
+        private FileSystemProvider delegate() {
+            return delegate.provider();
+        }
+
+        @Override
+        public String getScheme() {
+            return delegate().getScheme();
+        }
+
+        @Override
+        public FileSystem newFileSystem(URI uri, Map<String, ?> env) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public FileSystem getFileSystem(URI uri) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Path getPath(URI uri) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public InputStream newInputStream(Path path, OpenOption... options) throws IOException {
+            if (writes(Set.copyOf(Arrays.asList(options)))) {
+                throw new ReadOnlyFileSystemException();
+            }
+            return delegate().newInputStream(unwrap(path), options);
+        }
+
+        @Override
+        public SeekableByteChannel newByteChannel(Path path,
+                                                  Set<? extends OpenOption> options,
+                                                  FileAttribute<?>... attrs) throws IOException {
+            if (writes(options)) {
+                throw new ReadOnlyFileSystemException();
+            }
+            return delegate().newByteChannel(unwrap(path), options, attrs);
+        }
+
+        @Override
+        public FileChannel newFileChannel(Path path,
+                                          Set<? extends OpenOption> options,
+                                          FileAttribute<?>... attrs) throws IOException {
+            if (writes(options)) {
+                throw new ReadOnlyFileSystemException();
+            }
+            return delegate().newFileChannel(unwrap(path), options, attrs);
+        }
+
+        @Override
+        public DirectoryStream<Path> newDirectoryStream(Path dir, DirectoryStream.Filter<? super Path> filter)
+                throws IOException {
+            DirectoryStream<Path> stream = delegate().newDirectoryStream(unwrap(dir), path -> filter.accept(wrap(path)));
+            return new DirectoryStream<>() {
+                @Override
+                public Iterator<Path> iterator() {
+                    Iterator<Path> paths = stream.iterator();
+                    return new Iterator<>() {
+                        @Override
+                        public boolean hasNext() {
+                            return paths.hasNext();
+                        }
+
+                        @Override
+                        public Path next() {
+                            return wrap(paths.next());
+                        }
+                    };
+                }
+
+                @Override
+                public void close() throws IOException {
+                    stream.close();
+                }
+            };
+        }
+
+        @Override
+        public void createDirectory(Path dir, FileAttribute<?>... attrs) {
+            throw new ReadOnlyFileSystemException();
+        }
+
+        @Override
+        public void delete(Path path) {
+            throw new ReadOnlyFileSystemException();
+        }
+
+        @Override
+        public void copy(Path source, Path target, CopyOption... options) {
+            throw new ReadOnlyFileSystemException();
+        }
+
+        @Override
+        public void move(Path source, Path target, CopyOption... options) {
+            throw new ReadOnlyFileSystemException();
+        }
+
+        @Override
+        public boolean isSameFile(Path path, Path path2) throws IOException {
+            if (path2.getFileSystem() != ReadOnlyFileSystem.this) {
+                return false;
+            }
+            return delegate().isSameFile(unwrap(path), unwrap(path2));
+        }
+
+        @Override
+        public boolean isHidden(Path path) throws IOException {
+            return delegate().isHidden(unwrap(path));
+        }
+
+        @Override
+        public FileStore getFileStore(Path path) throws IOException {
+            return delegate().getFileStore(unwrap(path));
+        }
+
+        @Override
+        public void checkAccess(Path path, AccessMode... modes) throws IOException {
+            if (Arrays.asList(modes).contains(AccessMode.WRITE)) {
+                throw new AccessDeniedException(path.toString());
+            }
+            delegate().checkAccess(unwrap(path), modes);
+        }
+
+        /**
+         * Only the basic view is offered, and it can't set times.
+         * The others can all change attributes.
+         */
+        @Override
+        public <V extends FileAttributeView> V getFileAttributeView(Path path, Class<V> type, LinkOption... options) {
+            if (type != BasicFileAttributeView.class) {
+                return null;
+            }
+            BasicFileAttributeView view = delegate().getFileAttributeView(unwrap(path), BasicFileAttributeView.class, options);
+            if (view == null) {
+                return null;
+            }
+            return type.cast(new BasicFileAttributeView() {
+                @Override
+                public String name() {
+                    return view.name();
+                }
+
+                @Override
+                public BasicFileAttributes readAttributes() throws IOException {
+                    return view.readAttributes();
+                }
+
+                @Override
+                public void setTimes(FileTime lastModifiedTime, FileTime lastAccessTime, FileTime createTime) {
+                    throw new ReadOnlyFileSystemException();
+                }
+            });
+        }
+
+        @Override
+        public <A extends BasicFileAttributes> A readAttributes(Path path, Class<A> type, LinkOption... options)
+                throws IOException {
+            return delegate().readAttributes(unwrap(path), type, options);
+        }
+
+        @Override
+        public Map<String, Object> readAttributes(Path path, String attributes, LinkOption... options)
+                throws IOException {
+            return delegate().readAttributes(unwrap(path), attributes, options);
+        }
+
+        @Override
+        public void setAttribute(Path path, String attribute, Object value, LinkOption... options) {
+            throw new ReadOnlyFileSystemException();
+        }
+    }
+}
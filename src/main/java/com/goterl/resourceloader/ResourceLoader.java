@@ -17,14 +17,22 @@ import java.io.*;
 import java.net.MalformedURLException;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
 import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.file.*;
 import java.nio.file.attribute.PosixFilePermission;
 import java.util.*;
-import java.util.jar.JarFile;
-import java.util.jar.Manifest;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.function.BiConsumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
 
 
 /**
@@ -35,6 +43,18 @@ public class ResourceLoader {
 
     private final Logger logger = LoggerFactory.getLogger("ResourceLoader");
 
+    // Runs loadAsync calls that aren't given an executor. Every
+    // extraction gets its own virtual thread, so blocking file I/O
+    // doesn't tie up a platform thread.
+    private static volatile Executor defaultExecutor = Executors.newVirtualThreadPerTaskExecutor();
+
+    // Files that had to be extracted or decompressed before they could
+    // be mapped, so mapping them again doesn't extract them again. Each
+    // future completes once its copy has been made, so threads mapping
+    // the same resource at once wait for one copy rather than each
+    // making their own.
+    private final Map<List<String>, CompletableFuture<File>> extractedToMap = new ConcurrentHashMap<>();
+
     private final Collection<PosixFilePermission> writePerms = new ArrayList<>();
     private final Collection<PosixFilePermission> readPerms = new ArrayList<>();
     private final Collection<PosixFilePermission> execPerms = new ArrayList<>();
@@ -55,7 +75,9 @@ public class ResourceLoader {
 
     /**
      * Copies a file into a temporary directory regardless of
-     * if it is in a JAR or not.
+     * if it is in a JAR or not. If the file isn't there but a
+     * {@code .gz} or {@code .deflate} copy of it is, the copy is
+     * decompressed straight into the temporary directory instead.
      * @param relativePath A relative path to a file or directory
      *                     relative to the resources folder.
      * @return The file or directory you want to load.
@@ -63,29 +85,600 @@ public class ResourceLoader {
      * @throws URISyntaxException If cannot find the resource file.
      */
     public File copyToTempDirectory(String relativePath, Class outsideClass) throws IOException, URISyntaxException {
-        // Create a "main" temporary directory in which
-        // everything can be thrown in.
+        // Is the user loading resources that are
+        // from inside a JAR? If so then extract them.
+        ResourceLocation location = ResourceLocation.of(outsideClass);
+        if (location.isJar()) {
+            ArchivePath archivePath = location.resolve(relativePath);
+            File mainTempDir = extractionDirectory();
+            File file = null;
+            FileNotFoundException missing = null;
+            try {
+                file = nestedExtract(mainTempDir, archivePath);
+            } catch (FileNotFoundException e) {
+                // The persistent cache tells us straight away.
+                missing = e;
+            }
+            if (file == null || !file.exists()) {
+                if (mainTempDir == null) {
+                    mainTempDir = createMainTempDirectory();
+                }
+                File target = JarExtractor.resolve(mainTempDir.toPath(), JarExtractor.stripSlashes(archivePath.pathInJar)).toFile();
+                File decompressed = decompressVariant(relativePath, outsideClass, target);
+                if (decompressed != null) {
+                    return decompressed;
+                }
+                if (missing != null) {
+                    throw missing;
+                }
+            }
+            return file;
+        }
+
+        // If not then get the file/directory
+        // straight from the file system
         File mainTempDir = createMainTempDirectory();
+        try {
+            return getFileFromFileSystem(relativePath, mainTempDir);
+        } catch (FileNotFoundException e) {
+            File decompressed = decompressVariant(relativePath, outsideClass, new File(mainTempDir, new File(relativePath).getName()));
+            if (decompressed == null) {
+                throw e;
+            }
+            return decompressed;
+        }
+    }
 
-        // Create the required directories.
-        mainTempDir.mkdirs();
+    /**
+     * Look for a compressed variant of a resource that isn't there, such
+     * as {@code model.bin.gz} for {@code model.bin}, and decompress it
+     * straight into {@code target}.
+     * @return The decompressed file, or null if there is no compressed variant.
+     */
+    private File decompressVariant(String relativePath, Class outsideClass, File target)
+            throws IOException, URISyntaxException {
+        CompressedVariant variant = findCompressedVariant(relativePath, outsideClass);
+        if (variant == null) {
+            return null;
+        }
+        logger.debug("Decompressing {} into {}", relativePath + variant.extension, target);
+        Metrics.Extraction extraction = Metrics.extraction(relativePath + variant.extension, ResourceLocation.of(outsideClass).kind);
+        Files.createDirectories(target.getParentFile().toPath());
+        try (InputStream in = openVariant(variant, relativePath, outsideClass)) {
+            extraction.add(Files.copy(in, target.toPath(), StandardCopyOption.REPLACE_EXISTING));
+        }
+        extraction.end();
+        return target;
+    }
 
-        // Is the user loading resources that are
-        // from inside a JAR?
-        URL fullJarPathURL = getThePathToTheJarWeAreIn(outsideClass);
-
-        // Test if we are in a JAR and if we are
-        // then do the following...
-        if (isJarFile(fullJarPathURL)) {
-            File extracted = extractFromWithinAJarFile(fullJarPathURL, mainTempDir, relativePath);
-            if (extracted != null) {
+    private CompressedVariant findCompressedVariant(String relativePath, Class outsideClass) throws IOException {
+        for (CompressedVariant variant : CompressedVariant.values()) {
+            if (existsAsIs(relativePath + variant.extension, outsideClass)) {
+                return variant;
+            }
+        }
+        return null;
+    }
+
+    private InputStream openVariant(CompressedVariant variant, String relativePath, Class outsideClass)
+            throws IOException, URISyntaxException {
+        InputStream compressed = openRawStream(relativePath + variant.extension, outsideClass);
+        try {
+            return variant.decompress(compressed);
+        } catch (IOException | RuntimeException e) {
+            compressed.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Copy a file or directory into {@code outputDir}, regardless of if
+     * it is in a JAR or not. It keeps its relative path inside
+     * {@code outputDir}, unless the persistent cache is enabled, in which
+     * case it is served from there.
+     * @param outputDir A directory in which to store loaded files.
+     * @param relativePath A relative path to a file or directory in the resources folder.
+     * @param outsideClass A class that lives next to the resource.
+     * @return The copied file or directory.
+     * @throws IOException If the resource could not be read or copied.
+     * @throws URISyntaxException If cannot find the resource.
+     */
+    File copyInto(File outputDir, String relativePath, Class outsideClass) throws IOException, URISyntaxException {
+        ResourceLocation location = ResourceLocation.of(outsideClass);
+        if (location.isJar()) {
+            return nestedExtract(outputDir, location.resolve(relativePath));
+        }
+        return copyFromFileSystem(relativePath, outputDir);
+    }
+
+    /**
+     * Copies many files or directories into a single temporary directory,
+     * regardless of if they are in a JAR or not. Where the resources come
+     * from is only worked out once and each JAR is only opened once. Each file
+     * keeps its relative path inside the temporary directory. As with
+     * {@link #copyToTempDirectory(String, Class)}, a {@code .gz} or
+     * {@code .deflate} copy is decompressed for a file that isn't there.
+     * @param relativePaths Relative paths to files or directories
+     *                      relative to the resources folder.
+     * @param outsideClass A class that lives next to the resources.
+     * @param onFailure Told about every path that could not be copied. The other
+     *                  paths are still copied.
+     * @return The files and directories that were copied by their relative path.
+     * @throws IOException If the temporary directory could not be created.
+     */
+    public Map<String, File> copyAllToTempDirectory(Collection<String> relativePaths,
+                                                    Class outsideClass,
+                                                    BiConsumer<String, Exception> onFailure) throws IOException {
+        ResourceLocation location = ResourceLocation.of(outsideClass);
+        File mainTempDir = location.isJar() ? extractionDirectory() : createMainTempDirectory();
+        Map<String, File> copied = new LinkedHashMap<>();
+
+        // Anything that isn't there might have a compressed copy,
+        // so hold on to those until we've looked.
+        Map<String, FileNotFoundException> missing = new LinkedHashMap<>();
+        BiConsumer<String, Exception> failed = (relativePath, e) -> {
+            if (e instanceof FileNotFoundException) {
+                missing.put(relativePath, (FileNotFoundException) e);
+            } else {
+                onFailure.accept(relativePath, e);
+            }
+        };
+
+        if (!location.isJar()) {
+            for (String relativePath : relativePaths) {
+                try {
+                    copied.put(relativePath, copyFromFileSystem(relativePath, mainTempDir));
+                } catch (IOException | URISyntaxException e) {
+                    failed.accept(relativePath, e);
+                }
+            }
+        } else {
+            // Group the paths by the JAR they're in, so that
+            // each JAR only has to be opened once.
+            Map<List<String>, Map<String, String>> pathsByJar = new LinkedHashMap<>();
+            for (String relativePath : relativePaths) {
+                ArchivePath archivePath = location.resolve(relativePath);
+                pathsByJar.computeIfAbsent(archivePath.nestedJars, k -> new LinkedHashMap<>())
+                        .put(relativePath, archivePath.pathInJar);
+            }
+
+            for (Map.Entry<List<String>, Map<String, String>> jar : pathsByJar.entrySet()) {
+                try {
+                    copied.putAll(extractAllFromJar(mainTempDir, location.jar, jar.getKey(), jar.getValue(), failed));
+                } catch (IOException e) {
+                    for (String relativePath : jar.getValue().keySet()) {
+                        failed.accept(relativePath, e);
+                    }
+                }
+            }
+        }
+
+        for (Map.Entry<String, FileNotFoundException> notFound : missing.entrySet()) {
+            String relativePath = notFound.getKey();
+            try {
+                if (mainTempDir == null) {
+                    mainTempDir = createMainTempDirectory();
+                }
+                File target = JarExtractor.resolve(mainTempDir.toPath(), JarExtractor.stripSlashes(relativePath)).toFile();
+                File decompressed = decompressVariant(relativePath, outsideClass, target);
+                if (decompressed == null) {
+                    onFailure.accept(relativePath, notFound.getValue());
+                } else {
+                    copied.put(relativePath, decompressed);
+                }
+            } catch (IOException | URISyntaxException e) {
+                onFailure.accept(relativePath, e);
+            }
+        }
+        return copied;
+    }
+
+    /**
+     * Copies every file whose path matches a glob or regex into a single
+     * temporary directory, regardless of if they are in a JAR or not. Each
+     * file keeps its relative path inside the temporary directory. In a JAR
+     * only the entries under the pattern's leading directories are looked
+     * at and the JAR is only read once.
+     * @param pattern A glob such as {@code native/linux-x86-64/**.so}, or a
+     *                pattern with an explicit {@code glob:} or {@code regex:}
+     *                prefix. Paths are relative to the resources folder and use
+     *                forward slashes.
+     * @param permissions The permissions to give each file as soon as it is copied.
+     * @param outsideClass A class that lives next to the resources.
+     * @return The copied files in order of their relative paths.
+     * @throws IOException If the files could not be read or copied.
+     * @throws URISyntaxException If cannot find the resources.
+     */
+    public List<File> copyMatchingToTempDirectory(String pattern,
+                                                  Set<PosixFilePermission> permissions,
+                                                  Class outsideClass) throws IOException, URISyntaxException {
+        ResourcePattern resourcePattern = ResourcePattern.compile(pattern);
+        File mainTempDir = createMainTempDirectory();
+        JarExtractor.WrittenListener onWritten = file -> setPermissions(file.toFile(), permissions);
+
+        ResourceLocation location = ResourceLocation.of(outsideClass);
+        if (location.isJar()) {
+            return NestedJarReader.extractMatching(location.jar, location.nestedJars,
+                    resourcePattern.under(location.prefix), mainTempDir, onWritten);
+        }
+
+        // The resources can be spread over more than one directory
+        // on the class path, such as separate classes and resources
+        // output directories, so look in all of them.
+        List<File> copied = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        Path root = mainTempDir.toPath();
+        Metrics.Extraction copy = Metrics.extraction(resourcePattern, ResourceLocation.Kind.DIRECTORY);
+        Enumeration<URL> directories = ResourceLoader.class.getClassLoader().getResources(resourcePattern.prefix);
+        while (directories.hasMoreElements()) {
+            URL directory = directories.nextElement();
+            if (!"file".equals(directory.getProtocol())) {
+                continue;
+            }
+            Path from = Paths.get(directory.toURI());
+            List<Path> paths;
+            try (Stream<Path> walk = Files.walk(from)) {
+                paths = walk.sorted().collect(Collectors.toList());
+            }
+            for (Path path : paths) {
+                String relativePath = resourcePattern.prefix
+                        + from.relativize(path).toString().replace(File.separatorChar, '/');
+                if (!Files.isRegularFile(path) || !resourcePattern.matches(relativePath) || !seen.add(relativePath)) {
+                    continue;
+                }
+                Path target = JarExtractor.resolve(root, relativePath);
+                Files.createDirectories(target.getParent());
+                copy.add(doCopyFile(path.toFile(), target.toFile()));
+                onWritten.written(target);
+                copied.add(target.toFile());
+            }
+        }
+        copy.end();
+        copied.sort(null);
+        return copied;
+    }
+
+    private Map<String, File> extractAllFromJar(File outputDir,
+                                                File outerJar,
+                                                List<String> nestedJars,
+                                                Map<String, String> pathsInJar,
+                                                BiConsumer<String, Exception> onFailure) throws IOException {
+        ExtractionCache cache = ExtractionCache.get();
+        if (cache == null) {
+            return NestedJarReader.extractAll(outerJar, nestedJars, pathsInJar, outputDir, onFailure);
+        }
+        if (nestedJars.isEmpty()) {
+            return cache.extractAll(outerJar, pathsInJar, onFailure);
+        }
+        Map<String, File> extracted = new LinkedHashMap<>();
+        for (Map.Entry<String, String> request : pathsInJar.entrySet()) {
+            try {
+                extracted.put(request.getKey(), cachedNestedExtract(outerJar, nestedJars, request.getValue()));
+            } catch (IOException e) {
+                onFailure.accept(request.getKey(), e);
+            }
+        }
+        return extracted;
+    }
+
+    /**
+     * Open a file for reading regardless of if it is in a JAR or not.
+     * Nothing is written to the temporary directory, the file is read
+     * straight out of the JAR (or nested JAR) or the file system. If the
+     * file isn't there but a {@code .gz} or {@code .deflate} copy of it
+     * is, that is decompressed as it is read.
+     * @param relativePath A relative path to a file relative to the resources folder.
+     * @param outsideClass A class that lives next to the resource.
+     * @return The contents of the file. Please close it when you're done.
+     * @throws IOException If the file does not exist or could not be read.
+     * @throws URISyntaxException If cannot find the resource file.
+     */
+    public InputStream openStream(String relativePath, Class outsideClass) throws IOException, URISyntaxException {
+        try {
+            return openRawStream(relativePath, outsideClass);
+        } catch (FileNotFoundException e) {
+            CompressedVariant variant = findCompressedVariant(relativePath, outsideClass);
+            if (variant == null) {
+                throw e;
+            }
+            return openVariant(variant, relativePath, outsideClass);
+        }
+    }
+
+    private InputStream openRawStream(String relativePath, Class outsideClass) throws IOException, URISyntaxException {
+        ResourceLocation location = ResourceLocation.of(outsideClass);
+        if (location.isJar()) {
+            ArchivePath archivePath = location.resolve(relativePath);
+            return NestedJarReader.openStream(archivePath.jar, archivePath.nestedJars, archivePath.pathInJar);
+        }
+        return new FileInputStream(getRegularFileFromFileSystem(relativePath));
+    }
+
+    /**
+     * Get a file or directory as a {@link Path} without extracting it.
+     * In a JAR, or a nested JAR, the path is in a zip file system that
+     * reads the JAR in place, so code that already works with NIO paths
+     * can walk and read resources directly. Zip file systems are shared
+     * by everyone reading the same JAR and closed when the last
+     * {@link ResourcePath} using them is closed. Outside a JAR the path
+     * is the resource itself on the default file system. A {@code .gz} or
+     * {@code .deflate} copy isn't decompressed, as the path has to be in
+     * the JAR: use {@link #openStream} or {@link #copyToTempDirectory} for those.
+     * @param relativePath A relative path to a file or directory relative to the resources folder.
+     * @param outsideClass A class that lives next to the resource.
+     * @return The path. Please close it when you're done.
+     * @throws IOException If the resource does not exist or the JAR could not be opened.
+     * @throws URISyntaxException If cannot find the resource.
+     */
+    public ResourcePath loadAsPath(String relativePath, Class outsideClass) throws IOException, URISyntaxException {
+        ResourceLocation location = ResourceLocation.of(outsideClass);
+        if (!location.isJar()) {
+            return new ResourcePath(findOnFileSystem(relativePath).toPath(), null);
+        }
+        ArchivePath archivePath = location.resolve(relativePath);
+        ZipFileSystems.Shared fileSystem = ZipFileSystems.open(archivePath.jar, archivePath.nestedJars);
+        Path path = fileSystem.fileSystem.getPath("/" + JarExtractor.stripSlashes(archivePath.pathInJar));
+        if (!Files.exists(path)) {
+            fileSystem.release();
+            throw new FileNotFoundException("Could not find the resource " + relativePath);
+        }
+        return new ResourcePath(path, fileSystem);
+    }
+
+    /**
+     * Read the whole of a file regardless of if it is in a JAR or not.
+     * Nothing is written to the temporary directory.
+     * @param relativePath A relative path to a file relative to the resources folder.
+     * @param outsideClass A class that lives next to the resource.
+     * @return The contents of the file.
+     * @throws IOException If the file does not exist or could not be read.
+     * @throws URISyntaxException If cannot find the resource file.
+     */
+    public byte[] readAllBytes(String relativePath, Class outsideClass) throws IOException, URISyntaxException {
+        try (InputStream in = openStream(relativePath, outsideClass)) {
+            return in.readAllBytes();
+        }
+    }
+
+    /**
+     * Open a channel to a file regardless of if it is in a JAR or not.
+     * Nothing is written to the temporary directory. Files on the file
+     * system are opened as a {@link FileChannel}.
+     * @param relativePath A relative path to a file relative to the resources folder.
+     * @param outsideClass A class that lives next to the resource.
+     * @return A channel to the contents of the file. Please close it when you're done.
+     * @throws IOException If the file does not exist or could not be read.
+     * @throws URISyntaxException If cannot find the resource file.
+     */
+    public ReadableByteChannel openChannel(String relativePath, Class outsideClass) throws IOException, URISyntaxException {
+        if (ResourceLocation.of(outsideClass).isJar()) {
+            return Channels.newChannel(openStream(relativePath, outsideClass));
+        }
+        try {
+            return FileChannel.open(getRegularFileFromFileSystem(relativePath).toPath(), StandardOpenOption.READ);
+        } catch (FileNotFoundException e) {
+            // There might be a compressed copy.
+            return Channels.newChannel(openStream(relativePath, outsideClass));
+        }
+    }
+
+    /**
+     * Memory map a file regardless of if it is in a JAR or not. This
+     * is useful for large read-only files such as lookup tables, as the
+     * contents never have to be copied onto the heap.
+     * <p>
+     * Files in the resources folder and STORED (uncompressed) files in
+     * JARs are mapped in place. Compressed files are extracted first, into
+     * the persistent cache if it is enabled, and then mapped. A {@code .gz}
+     * or {@code .deflate} copy of a file that isn't there is decompressed
+     * into the temporary directory and then mapped. Either way this only
+     * happens the first time the file is mapped.
+     * </p>
+     * @param relativePath A relative path to a file relative to the resources folder.
+     * @param outsideClass A class that lives next to the resource.
+     * @return A read-only buffer of the file's contents.
+     * @throws IOException If the file does not exist or could not be mapped.
+     * @throws URISyntaxException If cannot find the resource file.
+     */
+    public MappedByteBuffer mapResource(String relativePath, Class outsideClass) throws IOException, URISyntaxException {
+        try {
+            return mapRawResource(relativePath, outsideClass);
+        } catch (FileNotFoundException e) {
+            if (findCompressedVariant(relativePath, outsideClass) == null) {
+                throw e;
+            }
+            // It's compressed, so it has to be decompressed before it can be mapped.
+            return mapFile(extractOnceToMap(relativePath, outsideClass,
+                    () -> copyToTempDirectory(relativePath, outsideClass)));
+        }
+    }
+
+    private MappedByteBuffer mapRawResource(String relativePath, Class outsideClass) throws IOException, URISyntaxException {
+        ResourceLocation location = ResourceLocation.of(outsideClass);
+        if (location.isJar()) {
+            ArchivePath archivePath = location.resolve(relativePath);
+            MappedByteBuffer mapped = NestedJarReader.map(archivePath.jar, archivePath.nestedJars, archivePath.pathInJar);
+            if (mapped != null) {
+                return mapped;
+            }
+            // It's compressed, so it has to be extracted before it can be mapped.
+            return mapFile(extractOnceToMap(relativePath, outsideClass,
+                    () -> nestedExtract(extractionDirectory(), archivePath)));
+        }
+        return mapFile(getRegularFileFromFileSystem(relativePath));
+    }
+
+    /**
+     * @return The copy that was made the last time this resource was
+     * mapped, or a new one from {@code copier} if there isn't one.
+     */
+    private File extractOnceToMap(String relativePath, Class outsideClass, Copier copier)
+            throws IOException, URISyntaxException {
+        List<String> key = Arrays.asList(String.valueOf(ResourceLocation.of(outsideClass).url), relativePath);
+        while (true) {
+            CompletableFuture<File> copying = new CompletableFuture<>();
+            CompletableFuture<File> existing = extractedToMap.putIfAbsent(key, copying);
+            if (existing == null) {
+                try {
+                    File extracted = copier.copy();
+                    copying.complete(extracted);
+                    return extracted;
+                } catch (IOException | URISyntaxException | RuntimeException | Error e) {
+                    // Don't remember failures, the next caller should try again.
+                    extractedToMap.remove(key, copying);
+                    copying.completeExceptionally(e);
+                    throw e;
+                }
+            }
+            File extracted = FileLoader.await(existing);
+            if (extracted.exists()) {
                 return extracted;
             }
+            // Someone deleted it, so copy it again.
+            extractedToMap.remove(key, existing);
         }
+    }
 
-        // If not then get the file/directory
-        // straight from the file system
-        return getFileFromFileSystem(relativePath, mainTempDir);
+    /**
+     * Copies a resource somewhere it can be mapped from.
+     */
+    private interface Copier {
+        File copy() throws IOException, URISyntaxException;
+    }
+
+    private static MappedByteBuffer mapFile(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    /**
+     * Check if a file or directory exists without extracting it.
+     * In a JAR this only reads the JAR's central directory. A file
+     * that only has a {@code .gz} or {@code .deflate} copy exists, as
+     * it can be loaded.
+     * @param relativePath A relative path to a file or directory relative to the resources folder.
+     * @param outsideClass A class that lives next to the resource.
+     * @return True if there is such a file or directory.
+     * @throws IOException If the JAR could not be read.
+     */
+    public boolean exists(String relativePath, Class outsideClass) throws IOException {
+        return existsAsIs(relativePath, outsideClass) || findCompressedVariant(relativePath, outsideClass) != null;
+    }
+
+    private boolean existsAsIs(String relativePath, Class outsideClass) throws IOException {
+        ResourceLocation location = ResourceLocation.of(outsideClass);
+        if (!location.isJar()) {
+            return ResourceLoader.class.getResource(prefixStringWithSlashIfNotAlready(relativePath)) != null;
+        }
+        ArchivePath archivePath = location.resolve(relativePath);
+        String name = JarExtractor.stripSlashes(archivePath.pathInJar);
+        try {
+            return name.isEmpty()
+                    || NestedJarReader.find(archivePath.jar, archivePath.nestedJars, name) != null
+                    || !NestedJarReader.list(archivePath.jar, archivePath.nestedJars, name + "/").isEmpty();
+        } catch (FileNotFoundException e) {
+            // One of the nested JARs isn't there.
+            return false;
+        }
+    }
+
+    /**
+     * Get the uncompressed size of a file without extracting it.
+     * In a JAR this comes from the JAR's central directory. Unlike
+     * {@link #openStream}, this doesn't look for a {@code .gz} or
+     * {@code .deflate} copy, as it would have to be decompressed.
+     * @param relativePath A relative path to a file relative to the resources folder.
+     * @param outsideClass A class that lives next to the resource.
+     * @return The size of the file in bytes.
+     * @throws IOException If the file does not exist or the JAR could not be read.
+     * @throws URISyntaxException If cannot find the resource file.
+     */
+    public long size(String relativePath, Class outsideClass) throws IOException, URISyntaxException {
+        ResourceLocation location = ResourceLocation.of(outsideClass);
+        if (location.isJar()) {
+            return findInJar(location, relativePath).size;
+        }
+        return getRegularFileFromFileSystem(relativePath).length();
+    }
+
+    /**
+     * Get the CRC32 of a file without extracting it. In a JAR this is
+     * the CRC32 stored in the JAR's central directory, so nothing has
+     * to be decompressed. A {@code .gz} or {@code .deflate} copy of a
+     * missing file isn't used, for the same reason.
+     * @param relativePath A relative path to a file relative to the resources folder.
+     * @param outsideClass A class that lives next to the resource.
+     * @return The CRC32 of the file's contents.
+     * @throws IOException If the file does not exist or could not be read.
+     * @throws URISyntaxException If cannot find the resource file.
+     */
+    public long checksum(String relativePath, Class outsideClass) throws IOException, URISyntaxException {
+        ResourceLocation location = ResourceLocation.of(outsideClass);
+        if (location.isJar()) {
+            return findInJar(location, relativePath).crc;
+        }
+        try (CheckedInputStream in = new CheckedInputStream(
+                new FileInputStream(getRegularFileFromFileSystem(relativePath)), new CRC32())) {
+            in.transferTo(OutputStream.nullOutputStream());
+            return in.getChecksum().getValue();
+        }
+    }
+
+    /**
+     * List every file in a directory and its subdirectories without
+     * extracting anything. Compressed copies are listed under their
+     * own names, such as {@code model.bin.gz}.
+     * @param relativePath A relative path to a directory relative to the resources
+     *                     folder. An empty path lists everything.
+     * @param outsideClass A class that lives next to the resources.
+     * @return The relative paths of the files, in order, which can be
+     * passed straight to the other methods of this class.
+     * @throws IOException If the directory does not exist or could not be read.
+     * @throws URISyntaxException If cannot find the resource directory.
+     */
+    public List<String> list(String relativePath, Class outsideClass) throws IOException, URISyntaxException {
+        String directory = JarExtractor.stripSlashes(relativePath);
+        String prefix = directory.isEmpty() ? "" : directory + "/";
+        List<String> files = new ArrayList<>();
+
+        ResourceLocation location = ResourceLocation.of(outsideClass);
+        if (location.isJar()) {
+            ArchivePath archivePath = location.resolve(relativePath);
+            String name = JarExtractor.stripSlashes(archivePath.pathInJar);
+            String namePrefix = name.isEmpty() ? "" : name + "/";
+            List<String> names = NestedJarReader.list(archivePath.jar, archivePath.nestedJars, namePrefix);
+            if (names.isEmpty() && !name.isEmpty()) {
+                throw new FileNotFoundException("Could not find the directory " + relativePath);
+            }
+            for (String entryName : names) {
+                if (!entryName.endsWith("/")) {
+                    files.add(prefix + entryName.substring(namePrefix.length()));
+                }
+            }
+            return files;
+        }
+
+        Path root = findOnFileSystem(prefixStringWithSlashIfNotAlready(directory)).toPath();
+        if (!Files.isDirectory(root)) {
+            throw new FileNotFoundException(relativePath + " is not a directory");
+        }
+        try (Stream<Path> walk = Files.walk(root)) {
+            walk.filter(Files::isRegularFile)
+                    .map(path -> prefix + root.relativize(path).toString().replace(File.separatorChar, '/'))
+                    .sorted()
+                    .forEach(files::add);
+        }
+        return files;
+    }
+
+    private ZipDirectory.Entry findInJar(ResourceLocation location, String relativePath) throws IOException {
+        ArchivePath archivePath = location.resolve(relativePath);
+        ZipDirectory.Entry entry = NestedJarReader.find(archivePath.jar, archivePath.nestedJars, archivePath.pathInJar);
+        if (entry == null) {
+            throw new FileNotFoundException(relativePath + " is not a file");
+        }
+        return entry;
     }
 
     public File extractFromWithinAJarFile(URL jarPath, File mainTempDir, String relativePath)
@@ -112,7 +705,9 @@ public class ResourceLoader {
     }
 
     /**
-     * A method that keeps extracting JAR files from within each other.
+     * A method that extracts files from JAR files that are within each other.
+     * The JARs in between are read in place or streamed, and only the final
+     * file or directory is written to {@code extractTo}.
      * This method only allows a maximum nested depth of 20.
      * @param extractTo Where shall we initially extract files to.
      * @param fullPath The full path to the initial
@@ -121,66 +716,55 @@ public class ResourceLoader {
      * @throws URISyntaxException
      */
     private File nestedExtract(File extractTo, String fullPath) throws IOException, URISyntaxException {
-        final String JAR = ".jar";
-
-        // After this line we have something like
-        // file:C/app, some/lazysodium, file.txt
-        String[] split = fullPath.split("(\\.jar/)");
-
-        if (split.length > 20) {
-            // What monster would put a JAR in a JAR 20 times?
-            throw new StackOverflowError("We cannot extract a file 21 or more layers deep.");
-        }
+        ArchivePath archivePath = ArchivePath.parse(fullPath);
 
         // We have no ".jar/" so we go straight
         // to extraction.
-        if (split.length == 1) {
+        if (archivePath == null) {
             logger.debug("Extracted {} to {}", fullPath, extractTo.getAbsolutePath());
-            return extractFilesOrFoldersFromJar(extractTo, new URL(fullPath), "");
-        }
-
-        String currentExtractionPath = "";
-        File extracted = null;
-        File nestedExtractTo = extractTo;
-        for (int i = 0; i < split.length - 1; i++) {
-            // Remember part = "file:C/app". But we need to know
-            // where to extract these files. So we have
-            // to prefix it with the current extraction path. We can't
-            // just dump everything in the temp directory all the time.
-            // Of course, we also suffix it with a ".jar". So at the end,
-            // we get something like "file:C:/temp/app.jar"
-            String part = currentExtractionPath + split[i] + JAR;
-            // If we don't add this then when we pass it into
-            // a URL() object then the URL object will complain
-            if (!part.startsWith("file:")) {
-                part = "file:" + part;
-            }
+            return extractFilesOrFoldersFromJar(extractTo, urlToFile(fullPath), "");
+        }
+        return nestedExtract(extractTo, archivePath);
+    }
 
-            // Now, we need to "look ahead" and determine
-            // the next part. We'd get something like
-            // this: "/lazysodium".
-            String nextPart = "/" + split[i + 1];
-
-            // Now check if it's the last iteration of this for-loop.
-            // If it isn't then add a ".jar" to nextPart, resulting
-            // in something like "/lazysodium.jar"
-            boolean isLastIteration = (i == (split.length - 2));
-            if (!isLastIteration) {
-                nextPart = nextPart + JAR;
-            }
+    /**
+     * The persistent cache extracts into a directory of its own, so only
+     * make a temporary directory, and this process's temporary root along
+     * with it, when the cache is off.
+     * @return A new temporary directory, or null if the cache is enabled.
+     */
+    private static File extractionDirectory() throws IOException {
+        return ExtractionCache.get() == null ? createMainTempDirectory() : null;
+    }
 
-            // Now perform the extraction.
-            logger.debug("Extracting {} from {}", nextPart, part);
-            extracted = extractFilesOrFoldersFromJar(nestedExtractTo, new URL(part), nextPart);
-            logger.debug("Extracted: {}", extracted.getAbsolutePath());
+    private File nestedExtract(File extractTo, ArchivePath archivePath) throws IOException {
+        File outerJar = archivePath.jar;
+        List<String> nestedJars = archivePath.nestedJars;
+        String pathInJar = archivePath.pathInJar;
 
-            // Note down the parent folder's location of the file we extracted to.
-            // This will be used at the start of the for-loop as the
-            // new destination to extract to.
-            currentExtractionPath = nestedExtractTo.getAbsolutePath() + "/";
-            nestedExtractTo = extracted.getParentFile();
+        if (nestedJars.isEmpty()) {
+            logger.debug("Extracting {} from {}", pathInJar, outerJar);
+            return extractFilesOrFoldersFromJar(extractTo, outerJar, pathInJar);
         }
-        return extracted;
+        if (ExtractionCache.get() != null) {
+            return cachedNestedExtract(outerJar, nestedJars, pathInJar);
+        }
+        logger.debug("Extracting {} from {} inside {}", pathInJar, nestedJars, outerJar);
+        return NestedJarReader.extract(outerJar, nestedJars, pathInJar, extractTo);
+    }
+
+    /**
+     * When the persistent cache is enabled we keep each inner JAR in the
+     * cache as well. That way a restart can go straight to the inner JAR
+     * instead of decompressing it out of the outer one again.
+     */
+    private File cachedNestedExtract(File outerJar, List<String> nestedJars, String pathInJar) throws IOException {
+        File currentJar = outerJar;
+        for (String nestedJar : nestedJars) {
+            logger.debug("Extracting {} from {}", nestedJar, currentJar);
+            currentJar = extractFilesOrFoldersFromJar(null, currentJar, nestedJar);
+        }
+        return extractFilesOrFoldersFromJar(null, currentJar, pathInJar);
     }
 
     /**
@@ -190,43 +774,27 @@ public class ResourceLoader {
      * @return
      */
     private boolean isJarFile(URL jarUrl) {
-        if (jarUrl != null) {
-            String urlString = jarUrl.toString();
-
-            String[] split = urlString.split("(\\.jar/)");
-            if (split.length > 1) {
-                urlString = split[0] + ".jar";
-            }
-
-            try (JarFile jarFile = new JarFile(new File(new URL(urlString).toURI()))) {
-                // Successfully opened the jar file. Check if there's a manifest
-                // This is probably not necessary
-                Manifest manifest = jarFile.getManifest();
-                if (manifest != null) {
-                    return true;
-                }
-            } catch (IOException | IllegalStateException | SecurityException | URISyntaxException e) {
-                logger.debug("This is not a JAR file due to {}", e.getMessage());
-            }
-        }
-        return false;
+        return ResourceLocation.isJarFile(jarUrl);
     }
 
     /**
-     * Extracts a file/directory from a JAR. A JAR is simply
-     * a zip file. We can unzip it and get our file successfully.
-     * @param jarUrl A JAR's URL.
+     * Extracts a file/directory from a JAR. Only the requested
+     * entry, or the entries underneath the requested directory, are
+     * written to disk. The rest of the JAR is left untouched. If the
+     * persistent cache is enabled then the entries are served from
+     * there instead of {@code outputDir}.
      * @param outputDir A directory of where to store our extracted files.
+     * @param jar A JAR file.
      * @param pathInJar A relative path to a file that is in our resources folder.
      * @return The file or directory that we requested.
-     * @throws URISyntaxException If we could not ascertain our location.
-     * @throws IOException If whilst unzipping we had some problems.
+     * @throws IOException If whilst extracting we had some problems.
      */
-    private File extractFilesOrFoldersFromJar(File outputDir, URL jarUrl, String pathInJar) throws URISyntaxException, IOException {
-        File jar = urlToFile(jarUrl);
-        unzip(jar.getAbsolutePath(), outputDir.getAbsolutePath());
-        String filePath = outputDir.getAbsolutePath() + pathInJar;
-        return new File(filePath);
+    private File extractFilesOrFoldersFromJar(File outputDir, File jar, String pathInJar) throws IOException {
+        ExtractionCache cache = ExtractionCache.get();
+        if (cache != null) {
+            return cache.extract(jar, pathInJar);
+        }
+        return JarExtractor.extract(jar, pathInJar, outputDir);
     }
 
     /**
@@ -239,73 +807,81 @@ public class ResourceLoader {
      */
     private File getFileFromFileSystem(String relativePath, File outputDir) throws IOException, URISyntaxException {
         relativePath = prefixStringWithSlashIfNotAlready(relativePath);
-        final URL url = ResourceLoader.class.getResource(relativePath);
-        final String urlString = url.getFile();
-        final File file;
-        if (Platform.isWindows()) {
-            file = Paths.get(url.toURI()).toFile();
-        } else {
-            file = new File(urlString);
-        }
+        final File file = findOnFileSystem(relativePath);
 
+        Metrics.Extraction copy = Metrics.extraction(relativePath, ResourceLocation.Kind.DIRECTORY);
         if (file.isFile()) {
             File resource = new File(relativePath);
             File resourceCopiedToTempFolder = new File(outputDir, resource.getName());
-            doCopyFile(file, resourceCopiedToTempFolder);
+            copy.add(doCopyFile(file, resourceCopiedToTempFolder));
+            copy.end();
             return resourceCopiedToTempFolder;
         } else {
-            copyDirectory(file, outputDir);
+            copyDirectory(file, outputDir, copy);
+            copy.end();
             return outputDir;
         }
     }
 
+    private static final long FILE_COPY_BUFFER_SIZE = 1000000 * 30;
+
     /**
-     * From https://www.javadevjournal.com/java/zipping-and-unzipping-in-java/
-     * @param zipFilePath An absolute path to a zip file
-     * @param unzipLocation Where to unzip the zip file
-     * @throws IOException If could not unzip.
+     * Copy a file or directory from the resources folder, keeping
+     * its relative path inside {@code outputDir}.
+     * @param relativePath A relative path to a file or directory in the resources folder.
+     * @param outputDir A directory in which to store loaded files.
+     * @return The copied file or directory.
+     * @throws IOException Could not find or copy your requested file.
      */
-    private static void unzip(final String zipFilePath, final String unzipLocation) throws IOException {
-        if (!(Files.exists(Paths.get(unzipLocation)))) {
-            Files.createDirectories(Paths.get(unzipLocation));
+    private File copyFromFileSystem(String relativePath, File outputDir) throws IOException, URISyntaxException {
+        File file = findOnFileSystem(relativePath);
+        File copy = JarExtractor.resolve(outputDir.toPath(), JarExtractor.stripSlashes(relativePath)).toFile();
+        Metrics.Extraction copied = Metrics.extraction(relativePath, ResourceLocation.Kind.DIRECTORY);
+        if (file.isFile()) {
+            Files.createDirectories(copy.getParentFile().toPath());
+            copied.add(doCopyFile(file, copy));
+        } else {
+            copyDirectory(file, copy, copied);
         }
-        try (ZipInputStream zipInputStream = new ZipInputStream(new FileInputStream(zipFilePath))) {
-            ZipEntry entry = zipInputStream.getNextEntry();
-            while (entry != null) {
-                Path filePath = Paths.get(unzipLocation, entry.getName());
-                if (!entry.isDirectory()) {
-                    filePath.getParent().toFile().mkdirs();
-                    unzipFiles(zipInputStream, filePath);
-                } else {
-                    Files.createDirectories(filePath);
-                }
+        copied.end();
+        return copy;
+    }
 
-                zipInputStream.closeEntry();
-                entry = zipInputStream.getNextEntry();
-            }
+    /**
+     * Find a file or directory in the resources folder
+     * on the file system.
+     * @param relativePath A relative path to a file or directory in the resources folder.
+     * @return The file or directory.
+     * @throws FileNotFoundException If there is no such resource.
+     */
+    private File findOnFileSystem(String relativePath) throws FileNotFoundException, URISyntaxException {
+        relativePath = prefixStringWithSlashIfNotAlready(relativePath);
+        final URL url = ResourceLoader.class.getResource(relativePath);
+        if (url == null) {
+            throw new FileNotFoundException("Could not find the resource " + relativePath);
+        }
+        if (Platform.isWindows()) {
+            return Paths.get(url.toURI()).toFile();
         }
+        return new File(url.getFile());
     }
 
-    private static void unzipFiles(final ZipInputStream zipInputStream, final Path unzipFilePath) throws IOException {
-        try (BufferedOutputStream bos = new BufferedOutputStream(new FileOutputStream(unzipFilePath.toAbsolutePath().toString()))) {
-            byte[] bytesIn = new byte[1024];
-            int read = 0;
-            while ((read = zipInputStream.read(bytesIn)) != -1) {
-                bos.write(bytesIn, 0, read);
-            }
+    private File getRegularFileFromFileSystem(String relativePath) throws FileNotFoundException, URISyntaxException {
+        File file = findOnFileSystem(relativePath);
+        if (!file.isFile()) {
+            throw new FileNotFoundException(relativePath + " is not a file");
         }
+        return file;
     }
 
-
-    private static final long FILE_COPY_BUFFER_SIZE = 1000000 * 30;
-
     /**
      * From Apache Commons
      * @param srcFile The source file
      * @param destFile The destination file
+     * @return How many bytes were copied
      * @throws IOException
      */
-    private static void doCopyFile(final File srcFile, final File destFile)
+    private static long doCopyFile(final File srcFile, final File destFile)
             throws IOException {
         if (destFile.exists() && destFile.isDirectory()) {
             throw new IOException("Destination '" + destFile + "' exists but is a directory");
@@ -335,15 +911,18 @@ public class ResourceLoader {
             throw new IOException("Failed to copy full contents from '" +
                     srcFile + "' to '" + destFile + "' Expected length: " + srcLen + " Actual: " + dstLen);
         }
+        return dstLen;
     }
 
     /**
      * From Apache Commons
      * @param srcDir The source directory
      * @param destDir The destination directory
+     * @param copied Counts every file that is copied
      * @throws IOException
      */
-    private static void copyDirectory(final File srcDir, final File destDir) throws IOException {
+    private static void copyDirectory(final File srcDir, final File destDir, final Metrics.Extraction copied)
+            throws IOException {
         if (srcDir.getCanonicalPath().equals(destDir.getCanonicalPath())) {
             throw new IOException("Source '" + srcDir + "' and destination '" + destDir + "' are the same");
         }
@@ -360,11 +939,13 @@ public class ResourceLoader {
                 }
             }
         }
-        doCopyDirectory(srcDir, destDir, exclusionList);
+        doCopyDirectory(srcDir, destDir, exclusionList, copied);
     }
 
-    private static void doCopyDirectory(final File srcDir, final File destDir, final List<String> exclusionList)
-            throws IOException {
+    private static void doCopyDirectory(final File srcDir,
+                                        final File destDir,
+                                        final List<String> exclusionList,
+                                        final Metrics.Extraction copied) throws IOException {
         // recurse
         final File[] srcFiles = srcDir.listFiles();
         if (srcFiles == null) {  // null if abstract pathname does not denote a directory, or if an I/O error occurs
@@ -386,25 +967,95 @@ public class ResourceLoader {
             final File dstFile = new File(destDir, srcFile.getName());
             if (exclusionList == null || !exclusionList.contains(srcFile.getCanonicalPath())) {
                 if (srcFile.isDirectory()) {
-                    doCopyDirectory(srcFile, dstFile, exclusionList);
+                    doCopyDirectory(srcFile, dstFile, exclusionList, copied);
                 } else {
-                    doCopyFile(srcFile, dstFile);
+                    copied.add(doCopyFile(srcFile, dstFile));
                 }
             }
         }
     }
 
     /**
-     * Creates the main temporary directory for resource-loader.
+     * Creates a new temporary directory for resource-loader. Every
+     * directory is made inside one directory for the whole process,
+     * which is deleted along with everything in it when the JVM exits.
      * @return A directory that you can store temporary resources in
      * @throws IOException Could not create a temporary directory
      */
     public static File createMainTempDirectory() throws IOException {
-        Path path = Files.createTempDirectory("resource-loader");
-        File dir = path.toFile();
-        dir.mkdir();
-        dir.deleteOnExit();
-        return dir;
+        return TempDirectories.create();
+    }
+
+    /**
+     * Keep extracted JAR entries in {@code ~/.cache/resource-loader}
+     * so they can be reused after the JVM restarts.
+     * @see #enablePersistentCache(File)
+     */
+    public static void enablePersistentCache() {
+        enablePersistentCache(ExtractionCache.defaultDirectory());
+    }
+
+    /**
+     * Keep extracted JAR entries in {@code directory} so they can be
+     * reused after the JVM restarts. Entries are keyed by the name, CRC32
+     * and size of every entry in the JAR, so stale or partially written
+     * entries are never returned. Every JVM on the host can share the same
+     * directory: only one of them extracts each entry and the rest use its
+     * copy. This can also be enabled by setting the
+     * {@code resourceloader.cache.dir} system property.
+     * @param directory The directory to keep the cache in.
+     */
+    public static void enablePersistentCache(File directory) {
+        ExtractionCache.enable(directory);
+    }
+
+    /**
+     * Stop using the persistent cache. Files already in the
+     * cache are left where they are.
+     */
+    public static void disablePersistentCache() {
+        ExtractionCache.disable();
+    }
+
+    /**
+     * @return The persistent cache directory, or null if
+     * the persistent cache is disabled.
+     */
+    public static File getPersistentCacheDirectory() {
+        ExtractionCache cache = ExtractionCache.get();
+        return cache == null ? null : cache.getDirectory();
+    }
+
+    /**
+     * Set the executor that {@code loadAsync} runs on when it isn't
+     * given one. By default every load runs on its own virtual thread.
+     * @param executor The executor to load resources on.
+     */
+    public static void setDefaultExecutor(Executor executor) {
+        defaultExecutor = Objects.requireNonNull(executor, "Please supply an executor.");
+    }
+
+    /**
+     * @return The executor that {@code loadAsync} runs on when it isn't given one.
+     */
+    public static Executor getDefaultExecutor() {
+        return defaultExecutor;
+    }
+
+    /**
+     * Install a listener that is told how long each phase of
+     * loading takes, such as opening an archive or extracting from it.
+     * @param metrics The listener, or null to stop timing anything.
+     */
+    public static void setMetrics(LoaderMetrics metrics) {
+        Metrics.set(metrics);
+    }
+
+    /**
+     * @return The installed metrics listener, or null if there is none.
+     */
+    public static LoaderMetrics getMetrics() {
+        return Metrics.get();
     }
 
     /**
@@ -423,12 +1074,30 @@ public class ResourceLoader {
      * Sets a file or directory's permissions. @{code filePermissions} can be null, in that
      * case then global read, wrote and execute permissions will be set, so use
      * with caution.
+     * <p>
+     * Files in the persistent cache are shared by every process, so their
+     * permissions are never changed. If {@code filePermissions} is empty
+     * the file is returned as it is. Otherwise, if the file doesn't
+     * already have exactly those permissions, it is copied into a
+     * temporary directory and the copy is returned instead.
+     * </p>
      * @param file The file to set new permissions on.
      * @param filePermissions New permissions.
-     * @return The file with correct permissions set.
+     * @return The file with correct permissions set, which
+     * is a copy of {@code file} if it was in the cache.
      * @throws IOException
      */
     public File setPermissions(File file, Set<PosixFilePermission> filePermissions) throws IOException {
+        ExtractionCache cache = ExtractionCache.get();
+        if (cache != null && cache.contains(file)) {
+            if (filePermissions.isEmpty()
+                    || !isPosixCompliant()
+                    || filePermissions.equals(Files.getPosixFilePermissions(file.toPath()))) {
+                return file;
+            }
+            file = copyOutOfCache(file);
+        }
+        long start = Metrics.start();
         if (isPosixCompliant()) {
             // For posix set fine grained permissions.
             if (filePermissions.isEmpty()) {
@@ -459,19 +1128,39 @@ public class ResourceLoader {
             }
 
         }
+        Metrics.end(LoaderMetrics.Phase.PERMISSIONS, file, start);
         return file;
     }
 
+    private File copyOutOfCache(File file) throws IOException {
+        File copy = new File(TempDirectories.create(), file.getName());
+        logger.debug("Copying {} out of the persistent cache into {}", file, copy);
+        Metrics.Extraction copied = Metrics.extraction(file.getPath(), ResourceLocation.Kind.DIRECTORY);
+        if (file.isDirectory()) {
+            copyDirectory(file, copy, copied);
+        } else {
+            copied.add(doCopyFile(file, copy));
+        }
+        copied.end();
+        return copy;
+    }
+
     /**
-     * Mark the file or directory as "to be deleted".
+     * Mark the file or directory as "to be deleted". Files that
+     * live in the persistent cache are never deleted.
      * @param file The file or directory to be deleted.
      */
     public void requestDeletion(File file) {
+        ExtractionCache cache = ExtractionCache.get();
+        if (cache != null && cache.contains(file)) {
+            return;
+        }
         if (isPosixCompliant()) {
             // The file can be deleted immediately after loading
             file.delete();
-        } else {
-            // Don't delete until last file descriptor closed
+        } else if (!TempDirectories.contains(file)) {
+            // Don't delete until last file descriptor closed. Anything
+            // in our temporary directories is deleted with them.
             file.deleteOnExit();
         }
     }
@@ -507,6 +1196,16 @@ public class ResourceLoader {
      * @param c The class whose location is desired.
      */
     public static URL getThePathToTheJarWeAreIn(final Class<?> c) {
+        // This is worked out once per class and remembered.
+        return ResourceLocation.of(c).url;
+    }
+
+    /**
+     * @param c The class whose location is desired.
+     * @return The raw location of the class, before any nested
+     * JAR syntax has been converted, or null if it can't be found.
+     */
+    static String getCodeSource(final Class<?> c) {
         if (c == null) return null; // could not load the class
 
         // Try the easy way first
@@ -514,7 +1213,7 @@ public class ResourceLoader {
             final URL codeSourceLocation =
                     c.getProtectionDomain().getCodeSource().getLocation();
             if (codeSourceLocation != null) {
-                return getPathToTheNestedJar(codeSourceLocation.toString());
+                return codeSourceLocation.toString();
             }
         } catch (final SecurityException e) {
             // Cannot access protection domain.
@@ -545,9 +1244,7 @@ public class ResourceLoader {
 
         // Strip the class's path from the URL string
         // This will now give us jar:file:/C:/app.jar!/lazysodium.jar/
-        String path = url.substring(0, url.length() - suffix.length());
-
-        return getPathToTheNestedJar(path);
+        return url.substring(0, url.length() - suffix.length());
     }
 
     /**
@@ -605,7 +1302,7 @@ public class ResourceLoader {
      * @param url
      * @return
      */
-    private static URL getPathToTheNestedJar(String url) {
+    static URL getPathToTheNestedJar(String url) {
         // Remove the "jar:" prefix
         if (url.startsWith("jar:")) {
             url = url.substring(4);
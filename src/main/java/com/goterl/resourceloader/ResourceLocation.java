@@ -0,0 +1,294 @@
+/*
+ * Copyright (c) Terl Tech Ltd  • 04/04/2021, 00:07 • goterl.com
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v2.0. If a copy of the MPL was not distributed with this
+ * file, you can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package com.goterl.resourceloader;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+/**
+ * Where a class, and so the resources next to it, lives. Working
+ * this out means regexes over the class's code source URL and opening
+ * its JAR to read the manifest, so it's only ever done once per class.
+ */
+final class ResourceLocation {
+
+    enum Kind {
+        /**
+         * Loose class files on the file system.
+         */
+        DIRECTORY,
+        /**
+         * A JAR on the file system.
+         */
+        JAR,
+        /**
+         * A JAR inside one or more other JARs.
+         */
+        NESTED_JAR,
+        /**
+         * A JAR or directory inside another JAR, given to us as a
+         * Spring Boot style {@code nested:} URL.
+         */
+        NESTED_URL
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger("ResourceLoader");
+
+    private static final String JAR = ".jar";
+    private static final String JAR_SEPARATOR = ".jar/";
+
+    private static final String NESTED = "nested:";
+
+    private static final ResourceLocation UNKNOWN = new ResourceLocation(Kind.DIRECTORY, null, null, Collections.emptyList(), "");
+
+    private static final ClassValue<ResourceLocation> LOCATIONS = new ClassValue<ResourceLocation>() {
+        @Override
+        protected ResourceLocation computeValue(Class<?> c) {
+            return locate(c);
+        }
+    };
+
+    final Kind kind;
+
+    /**
+     * What {@link ResourceLoader#getThePathToTheJarWeAreIn(Class)} returns,
+     * such as {@code file:/app.jar/lib/inner.jar}.
+     */
+    final URL url;
+
+    /**
+     * The JAR on disk, or null if this is a directory.
+     */
+    final File jar;
+
+    /**
+     * The JARs to go through to get to the class, outermost first.
+     */
+    final List<String> nestedJars;
+
+    /**
+     * The directory inside the innermost JAR that resources are
+     * relative to, such as {@code BOOT-INF/classes/}, or empty if
+     * they are at the root of it.
+     */
+    final String prefix;
+
+    private ResourceLocation(Kind kind, URL url, File jar, List<String> nestedJars, String prefix) {
+        this.kind = kind;
+        this.url = url;
+        this.jar = jar;
+        this.nestedJars = Collections.unmodifiableList(nestedJars);
+        this.prefix = prefix;
+    }
+
+    /**
+     * @param c A class.
+     * @return Where the class lives. This is worked out the
+     * first time and remembered after that.
+     */
+    static ResourceLocation of(Class<?> c) {
+        return c == null ? UNKNOWN : LOCATIONS.get(c);
+    }
+
+    boolean isJar() {
+        return kind != Kind.DIRECTORY;
+    }
+
+    /**
+     * Split a path relative to the resources folder into the JARs
+     * to go through and the path inside the innermost one. Only the
+     * relative path is looked at, everything else was parsed up front.
+     * @param relativePath A path such as {@code lib/other.jar/file.txt}.
+     * @return The path inside this JAR.
+     */
+    ArchivePath resolve(String relativePath) {
+        List<String> parts = split(JarExtractor.stripSlashes(relativePath));
+        if (nestedJars.size() + parts.size() + 1 > ArchivePath.MAX_DEPTH) {
+            throw new StackOverflowError("We cannot extract a file 21 or more layers deep.");
+        }
+        List<String> jars = new ArrayList<>(nestedJars);
+        String directory = prefix;
+        for (int i = 0; i < parts.size() - 1; i++) {
+            jars.add(directory + parts.get(i) + JAR);
+            directory = "";
+        }
+        return new ArchivePath(jar, jars, "/" + directory + parts.get(parts.size() - 1));
+    }
+
+    private static ResourceLocation locate(Class<?> c) {
+        long start = Metrics.start();
+        String codeSource = ResourceLoader.getCodeSource(c);
+        URL url = codeSource == null ? null : ResourceLoader.getPathToTheNestedJar(codeSource);
+        Metrics.end(LoaderMetrics.Phase.CODE_SOURCE, c.getName(), start);
+
+        start = Metrics.start();
+        ResourceLocation nested = locateNested(codeSource, url);
+        if (nested != null) {
+            Metrics.end(LoaderMetrics.Phase.JAR_DETECTION, c.getName(), start);
+            logger.debug("{} is in {} ({})", c.getName(), url, nested.kind);
+            return nested;
+        }
+        boolean isJar = isJarFile(url);
+        Metrics.end(LoaderMetrics.Phase.JAR_DETECTION, c.getName(), start);
+        if (!isJar) {
+            return new ResourceLocation(Kind.DIRECTORY, url, null, Collections.emptyList(), "");
+        }
+
+        // file:/app.jar/lib/inner.jar is made up of
+        // file:/app.jar and lib/inner.jar.
+        List<String> parts = split(url.toString());
+        List<String> archives = new ArrayList<>();
+        for (int i = 0; i < parts.size() - 1; i++) {
+            archives.add(parts.get(i) + JAR);
+        }
+        archives.add(parts.get(parts.size() - 1));
+
+        File jar = ResourceLoader.urlToFile(archives.get(0));
+        List<String> nestedJars = archives.subList(1, archives.size());
+        Kind kind;
+        if (codeSource.startsWith(NESTED)) {
+            kind = Kind.NESTED_URL;
+        } else if (nestedJars.isEmpty()) {
+            kind = Kind.JAR;
+        } else {
+            kind = Kind.NESTED_JAR;
+        }
+        logger.debug("{} is in {} ({})", c.getName(), url, kind);
+        return new ResourceLocation(kind, url, jar, new ArrayList<>(nestedJars), "");
+    }
+
+    /**
+     * Spring Boot 3.2 and later load classes from URLs such as
+     * {@code nested:/app.jar/!BOOT-INF/lib/inner.jar} or
+     * {@code nested:/app.jar/!BOOT-INF/classes/}. Those already say
+     * which file on disk is the outer JAR and what inside it is
+     * wanted, so rather than open the outer JAR with {@link JarFile} to
+     * check its manifest, read its central directory ourselves. That
+     * index is shared, so the extraction that follows doesn't read it
+     * again. The inner JAR, which Boot stores uncompressed, is then
+     * read in place by {@link NestedJarReader}.
+     * @return The location, or null if this isn't a {@code nested:}
+     * URL we understand.
+     */
+    static ResourceLocation locateNested(String codeSource, URL url) {
+        if (codeSource == null) {
+            return null;
+        }
+        String location = codeSource.startsWith("jar:") ? codeSource.substring(4) : codeSource;
+        if (!location.startsWith(NESTED)) {
+            return null;
+        }
+        location = location.substring(NESTED.length());
+        if (location.endsWith("!/")) {
+            location = location.substring(0, location.length() - 2);
+        }
+
+        // Boot separates the outer JAR from the entry with "/!",
+        // but "!/" is seen as well.
+        int separator = location.indexOf("/!");
+        int skip = 2;
+        if (separator < 0) {
+            separator = location.indexOf("!/");
+        }
+        if (separator < 0) {
+            separator = location.length();
+            skip = 0;
+        }
+        File jar = nestedFile(location.substring(0, separator));
+        String entry = JarExtractor.stripSlashes(location.substring(separator + skip));
+        if (jar == null || !jar.isFile()) {
+            return null;
+        }
+
+        try (FileChannel channel = FileChannel.open(jar.toPath(), StandardOpenOption.READ)) {
+            ZipDirectory directory = ZipDirectory.read(jar.toPath(), channel, 0, channel.size());
+            if (entry.isEmpty()) {
+                return new ResourceLocation(Kind.NESTED_URL, url, jar, Collections.emptyList(), "");
+            }
+            ZipDirectory.Entry found = directory.find(entry);
+            if (found != null && !found.isDirectory() && entry.endsWith(JAR)) {
+                return new ResourceLocation(Kind.NESTED_URL, url, jar, Collections.singletonList(entry), "");
+            }
+            if (!directory.entriesUnder(entry + "/").isEmpty()) {
+                return new ResourceLocation(Kind.NESTED_URL, url, jar, Collections.emptyList(), entry + "/");
+            }
+        } catch (IOException e) {
+            logger.debug("Could not read {} from {}", entry, jar, e);
+        }
+        return null;
+    }
+
+    /**
+     * @param path The path part of a {@code nested:} URL, which is percent encoded.
+     * @return The file it points to.
+     */
+    private static File nestedFile(String path) {
+        try {
+            return new File(new URI("file:" + path));
+        } catch (URISyntaxException | IllegalArgumentException e) {
+            // Not encoded after all.
+            return new File(path);
+        }
+    }
+
+    /**
+     * Split a path on ".jar/" without using a regex.
+     */
+    private static List<String> split(String path) {
+        List<String> parts = new ArrayList<>();
+        int from = 0;
+        int index;
+        while ((index = path.indexOf(JAR_SEPARATOR, from)) >= 0) {
+            parts.add(path.substring(from, index));
+            from = index + JAR_SEPARATOR.length();
+        }
+        parts.add(path.substring(from));
+        return parts;
+    }
+
+    /**
+     * Does the URL lead to a valid JAR file? Usually
+     * valid JAR files have a manifest.
+     */
+    static boolean isJarFile(URL jarUrl) {
+        if (jarUrl != null) {
+            String urlString = jarUrl.toString();
+
+            int nested = urlString.indexOf(JAR_SEPARATOR);
+            if (nested >= 0) {
+                urlString = urlString.substring(0, nested) + JAR;
+            }
+
+            try (JarFile jarFile = new JarFile(ResourceLoader.urlToFile(urlString))) {
+                // Successfully opened the jar file. Check if there's a manifest
+                // This is probably not necessary
+                Manifest manifest = jarFile.getManifest();
+                if (manifest != null) {
+                    return true;
+                }
+            } catch (IOException | IllegalArgumentException | IllegalStateException | SecurityException e) {
+                logger.debug("This is not a JAR file due to {}", e.getMessage());
+            }
+        }
+        return false;
+    }
+}
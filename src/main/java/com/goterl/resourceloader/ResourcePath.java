@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) Terl Tech Ltd  • 04/04/2021, 00:07 • goterl.com
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v2.0. If a copy of the MPL was not distributed with this
+ * file, you can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package com.goterl.resourceloader;
+
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A file or directory from the resources folder as a {@link Path},
+ * from {@link ResourceLoader#loadAsPath(String, Class)}. In a JAR the
+ * path belongs to a zip file system that reads the JAR in place. That
+ * file system is shared by every {@code ResourcePath} in the same JAR
+ * and is closed once all of them have been closed.
+ * <pre>
+ * try (ResourcePath templates = loader.loadAsPath("templates", Main.class)) {
+ *     Files.walk(templates.getPath()).forEach(...);
+ * }
+ * </pre>
+ */
+public final class ResourcePath implements AutoCloseable {
+
+    private final Path path;
+    private final ZipFileSystems.Shared fileSystem;
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    ResourcePath(Path path, ZipFileSystems.Shared fileSystem) {
+        this.path = path;
+        this.fileSystem = fileSystem;
+    }
+
+    /**
+     * @return The file or directory. Paths in a JAR can only be read.
+     * @throws IllegalStateException If this has been closed.
+     */
+    public Path getPath() {
+        if (closed.get()) {
+            throw new IllegalStateException(path + " has been closed");
+        }
+        return path;
+    }
+
+    /**
+     * @return True if the path is inside a JAR rather
+     * than on the default file system.
+     */
+    public boolean isInArchive() {
+        return fileSystem != null;
+    }
+
+    /**
+     * @return True until {@link #close()} is called.
+     */
+    public boolean isOpen() {
+        return !closed.get();
+    }
+
+    /**
+     * Give up this path. Its zip file system is closed if nothing else
+     * is using it, after which the path can't be read. Closing more
+     * than once does nothing.
+     */
+    @Override
+    public void close() {
+        if (closed.compareAndSet(false, true) && fileSystem != null) {
+            fileSystem.release();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return (isOpen() ? "" : "closed ") + path.toUri();
+    }
+}
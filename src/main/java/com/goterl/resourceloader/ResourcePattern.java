@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) Terl Tech Ltd  • 04/04/2021, 00:07 • goterl.com
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v2.0. If a copy of the MPL was not distributed with this
+ * file, you can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package com.goterl.resourceloader;
+
+import java.nio.file.FileSystems;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+
+/**
+ * A glob or regex over paths relative to the resources folder,
+ * such as {@code native/linux-x86-64/**.so}.
+ */
+final class ResourcePattern {
+
+    private static final String GLOB = "glob:";
+    private static final String REGEX = "regex:";
+
+    private final String pattern;
+    private final PathMatcher matcher;
+
+    /**
+     * Every path that matches starts with this, so only the
+     * entries under it have to be looked at.
+     */
+    final String prefix;
+
+    // The directory that paths are matched relative to.
+    private final String root;
+
+    private ResourcePattern(String pattern, PathMatcher matcher, String prefix, String root) {
+        this.pattern = pattern;
+        this.matcher = matcher;
+        this.prefix = prefix;
+        this.root = root;
+    }
+
+    /**
+     * @param pattern A glob such as {@code lib/*.so}, or a pattern with
+     *                an explicit {@code glob:} or {@code regex:} prefix.
+     * @return The compiled pattern.
+     * @throws IllegalArgumentException If the pattern is invalid.
+     */
+    static ResourcePattern compile(String pattern) {
+        if (pattern.startsWith(REGEX)) {
+            return new ResourcePattern(pattern, FileSystems.getDefault().getPathMatcher(pattern), "", "");
+        }
+        String glob = pattern.startsWith(GLOB) ? pattern.substring(GLOB.length()) : pattern;
+        glob = JarExtractor.stripSlashes(glob);
+        return new ResourcePattern(pattern, FileSystems.getDefault().getPathMatcher(GLOB + glob), literalPrefix(glob), "");
+    }
+
+    /**
+     * @param path A path relative to the resources folder, using forward slashes.
+     * @return True if the path matches.
+     */
+    boolean matches(String path) {
+        if (!path.startsWith(root)) {
+            return false;
+        }
+        return matcher.matches(Paths.get(path.substring(root.length())));
+    }
+
+    /**
+     * @param directory A directory ending in a slash, such as {@code BOOT-INF/classes/},
+     *                  or empty.
+     * @return This pattern, but matching paths relative to that directory.
+     */
+    ResourcePattern under(String directory) {
+        if (directory.isEmpty()) {
+            return this;
+        }
+        return new ResourcePattern(pattern, matcher, root + directory + prefix, root + directory);
+    }
+
+    @Override
+    public String toString() {
+        return pattern;
+    }
+
+    /**
+     * @return The directories at the start of the glob that
+     * don't have any special characters in them.
+     */
+    private static String literalPrefix(String glob) {
+        int end = 0;
+        while (end < glob.length() && "*?[{\\".indexOf(glob.charAt(end)) < 0) {
+            end++;
+        }
+        return glob.substring(0, glob.lastIndexOf('/', end - 1) + 1);
+    }
+}
@@ -13,14 +13,35 @@ import com.sun.jna.Native;
 import java.io.File;
 import java.io.IOException;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 
 import static java.util.Objects.requireNonNull;
 
 public class SharedLibraryLoader extends ResourceLoader {
 
-    private final Object lock = new Object();
+    // Libraries that are being loaded right now. Different libraries
+    // load in parallel, while a second request for a library that is
+    // already loading waits on the first one.
+    private final ConcurrentMap<LibraryKey, CompletableFuture<File>> inFlight = new ConcurrentHashMap<>();
+
+    // Classes that already have a library registered with them,
+    // by library. Loading a library again for the same classes is
+    // answered from here without touching the disk. Each future
+    // completes once the class has been registered, so a second
+    // load waits for the first instead of registering it again.
+    private final ConcurrentMap<String, ConcurrentMap<Class, CompletableFuture<LoadedLibrary>>> registered =
+            new ConcurrentHashMap<>();
 
 
     private SharedLibraryLoader() {
@@ -40,46 +61,278 @@ public class SharedLibraryLoader extends ResourceLoader {
     }
 
     public void loadSystemLibrary(String libraryName, List<Class> classes) {
-        registerLibraryWithClasses(libraryName, classes);
+        String library = "system:" + libraryName;
+        if (registeredPath(library, classes) != null) {
+            return;
+        }
+        registerLibraryWithClasses(library, libraryName, libraryName, "SYSTEM", classes);
+    }
+
+    /**
+     * @return Every library that has been registered with a class, and
+     * the path it was registered from.
+     */
+    public List<LoadedLibrary> getLoadedLibraries() {
+        List<LoadedLibrary> libraries = new ArrayList<>();
+        for (Map<Class, CompletableFuture<LoadedLibrary>> byClass : registered.values()) {
+            for (CompletableFuture<LoadedLibrary> registering : byClass.values()) {
+                LoadedLibrary loaded = registeredLibrary(registering);
+                if (loaded != null) {
+                    libraries.add(loaded);
+                }
+            }
+        }
+        return libraries;
     }
 
     public File load(String relativePath, Class clzz) {
         return load(relativePath, Collections.singletonList(clzz));
     }
 
+    /**
+     * Load a shared library and register it with {@code classes}. Libraries
+     * are loaded in parallel with each other. If the same library is already
+     * being loaded for the same classes, this waits for that load instead of
+     * doing it again. If it has already been registered with all of the
+     * classes, this returns straight away.
+     * @param relativePath Relative path to the library.
+     * @param classes The classes to register the library with.
+     * @return The library.
+     */
     public File load(String relativePath, List<Class> classes) {
-        synchronized (lock) {
-            try {
-                File library = copyToTempDirectory(relativePath, classes.get(0));
-                setPermissions(library);
-                if (library.isDirectory()) {
-                    throw new IOException("Please supply a relative path to a file and not a directory.");
-                }
-                registerLibraryWithClasses(library.getAbsolutePath(), classes);
-                requestDeletion(library);
-                return library;
-            } catch (IOException e) {
-                String message = String.format(
-                        "Failed to load the bundled library from resources by relative path (%s)",
-                        relativePath
-                );
-                throw new ResourceLoaderException(message, e);
-            } catch (URISyntaxException e) {
-                String message = String.format(
-                        "Finding the library from path (%s) failed!",
-                        relativePath
-                );
-                throw new ResourceLoaderException(message, e);
+        LibraryKey key = new LibraryKey(getThePathToTheJarWeAreIn(classes.get(0)), relativePath, classes);
+        String path = registeredPath(key.library(), classes);
+        Metrics.cache(LoaderMetrics.Cache.LIBRARIES, relativePath, path != null);
+        if (path != null) {
+            return new File(path);
+        }
+        CompletableFuture<File> loading = new CompletableFuture<>();
+        CompletableFuture<File> existing = inFlight.putIfAbsent(key, loading);
+        if (existing != null) {
+            return awaitLoad(existing, relativePath, classes);
+        }
+        loadOnce(key, loading, relativePath, classes);
+        return await(loading);
+    }
+
+    /**
+     * Load a shared library in the background.
+     * @see #loadAsync(String, List, Executor)
+     * @param relativePath Relative path to the library.
+     * @param clzz The class to register the library with.
+     * @return The library once it has been loaded and registered.
+     */
+    public CompletableFuture<File> loadAsync(String relativePath, Class clzz) {
+        return loadAsync(relativePath, Collections.singletonList(clzz), getDefaultExecutor());
+    }
+
+    /**
+     * Load a shared library on {@code executor} and register it with
+     * {@code classes}. Like {@link #load(String, List)}, this shares a
+     * load of the same library that is already running.
+     * @param relativePath Relative path to the library.
+     * @param classes The classes to register the library with.
+     * @param executor Where to run the load.
+     * @return The library once it has been loaded and registered. If loading
+     * fails, the future completes with a {@link ResourceLoaderException}.
+     */
+    public CompletableFuture<File> loadAsync(String relativePath, List<Class> classes, Executor executor) {
+        LibraryKey key = new LibraryKey(getThePathToTheJarWeAreIn(classes.get(0)), relativePath, classes);
+        String path = registeredPath(key.library(), classes);
+        Metrics.cache(LoaderMetrics.Cache.LIBRARIES, relativePath, path != null);
+        if (path != null) {
+            return CompletableFuture.completedFuture(new File(path));
+        }
+        CompletableFuture<File> loading = new CompletableFuture<>();
+        CompletableFuture<File> existing = inFlight.putIfAbsent(key, loading);
+        if (existing != null) {
+            return existing.copy();
+        }
+        try {
+            executor.execute(() -> loadOnce(key, loading, relativePath, classes));
+        } catch (RejectedExecutionException e) {
+            inFlight.remove(key, loading);
+            loading.completeExceptionally(e);
+        }
+        return loading.copy();
+    }
+
+    private void loadOnce(LibraryKey key, CompletableFuture<File> loading, String relativePath, List<Class> classes) {
+        try {
+            // Another load may have registered it between our check and
+            // winning the race to load it, so check again.
+            String path = registeredPath(key.library(), classes);
+            loading.complete(path != null ? new File(path) : copyAndRegister(key.library(), relativePath, classes));
+        } catch (RuntimeException | Error e) {
+            loading.completeExceptionally(e);
+        } finally {
+            inFlight.remove(key, loading);
+        }
+    }
+
+    private File copyAndRegister(String library, String relativePath, List<Class> classes) {
+        try {
+            File file = setPermissions(copyToTempDirectory(relativePath, classes.get(0)));
+            if (file.isDirectory()) {
+                throw new IOException("Please supply a relative path to a file and not a directory.");
+            }
+            String source = ResourceLocation.of(classes.get(0)).kind.name();
+            registerLibraryWithClasses(library, relativePath, file.getAbsolutePath(), source, classes);
+            requestDeletion(file);
+            return file;
+        } catch (IOException e) {
+            String message = String.format(
+                    "Failed to load the bundled library from resources by relative path (%s)",
+                    relativePath
+            );
+            throw new ResourceLoaderException(message, e);
+        } catch (URISyntaxException e) {
+            String message = String.format(
+                    "Finding the library from path (%s) failed!",
+                    relativePath
+            );
+            throw new ResourceLoaderException(message, e);
+        }
+    }
+
+    private static <T> T await(CompletableFuture<T> loading) {
+        try {
+            return loading.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
             }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
         }
     }
 
-    private void registerLibraryWithClasses(String absolutePath, List<Class> classes) {
+    /**
+     * Wait for another thread's load of the same library, recording
+     * how long that took if the JFR event is enabled.
+     */
+    private static File awaitLoad(CompletableFuture<File> loading, String relativePath, List<Class> classes) {
+        NativeLibraryEvent event = LoaderEvents.beginRegistration();
+        long start = event == null ? 0 : System.nanoTime();
+        File file = await(loading);
+        if (event != null) {
+            String source = ResourceLocation.of(classes.get(0)).kind.name();
+            LoaderEvents.commit(event, relativePath, source, 0, 0, System.nanoTime() - start);
+        }
+        return file;
+    }
+
+    private void registerLibraryWithClasses(String library,
+                                            String name,
+                                            String absolutePath,
+                                            String source,
+                                            List<Class> classes) {
         requireNonNull(absolutePath, "Please supply an absolute path.");
-        synchronized (lock) {
-            for (Class clzz : classes) {
+        NativeLibraryEvent event = LoaderEvents.beginRegistration();
+        int registeredWith = 0;
+        Map<Class, CompletableFuture<LoadedLibrary>> byClass =
+                registered.computeIfAbsent(library, l -> new ConcurrentHashMap<>());
+        for (Class clzz : classes) {
+            // Whoever puts the future in registers the class. That happens
+            // outside the map, so Native.register never runs while
+            // ConcurrentHashMap is holding a lock.
+            CompletableFuture<LoadedLibrary> registering = new CompletableFuture<>();
+            CompletableFuture<LoadedLibrary> existing = byClass.putIfAbsent(clzz, registering);
+            if (existing != null) {
+                await(existing);
+                continue;
+            }
+            try {
+                long start = Metrics.start();
                 Native.register(clzz, absolutePath);
+                Metrics.end(LoaderMetrics.Phase.NATIVE_REGISTER, absolutePath, start);
+                registering.complete(new LoadedLibrary(name, clzz, absolutePath));
+                registeredWith++;
+            } catch (RuntimeException | Error e) {
+                // Don't remember failures, the next load should try again.
+                byClass.remove(clzz, registering);
+                registering.completeExceptionally(e);
+                throw e;
+            }
+        }
+        if (event != null) {
+            LoaderEvents.commit(event, name, source, registeredWith, new File(absolutePath).length(), 0);
+        }
+    }
+
+    /**
+     * @return The path the library was registered from if it has been
+     * registered with all of {@code classes}, otherwise null.
+     */
+    private String registeredPath(String library, List<Class> classes) {
+        Map<Class, CompletableFuture<LoadedLibrary>> byClass = registered.get(library);
+        if (byClass == null) {
+            return null;
+        }
+        String path = null;
+        for (Class clzz : classes) {
+            LoadedLibrary loaded = registeredLibrary(byClass.get(clzz));
+            if (loaded == null) {
+                return null;
             }
+            path = loaded.getPath();
+        }
+        return path;
+    }
+
+    /**
+     * @return The library {@code registering} registered, or null if it
+     * hasn't finished or there isn't one.
+     */
+    private static LoadedLibrary registeredLibrary(CompletableFuture<LoadedLibrary> registering) {
+        if (registering == null || registering.state() != Future.State.SUCCESS) {
+            return null;
+        }
+        return registering.resultNow();
+    }
+
+    /**
+     * Identifies a library load by where the library
+     * comes from and the classes it is registered with.
+     */
+    private static final class LibraryKey {
+        private final String codeSource;
+        private final String relativePath;
+        private final List<Class> classes;
+
+        LibraryKey(Object codeSource, String relativePath, List<Class> classes) {
+            this.codeSource = String.valueOf(codeSource);
+            this.relativePath = relativePath;
+            this.classes = List.copyOf(classes);
+        }
+
+        /**
+         * @return The library regardless of which classes it is for.
+         */
+        String library() {
+            return codeSource + "!" + relativePath;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof LibraryKey)) {
+                return false;
+            }
+            LibraryKey other = (LibraryKey) o;
+            return codeSource.equals(other.codeSource)
+                    && relativePath.equals(other.relativePath)
+                    && classes.equals(other.classes);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(codeSource, relativePath, classes);
         }
     }
 
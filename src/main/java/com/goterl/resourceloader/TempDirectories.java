@@ -0,0 +1,329 @@
+/*
+ * Copyright (c) Terl Tech Ltd  • 04/04/2021, 00:07 • goterl.com
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v2.0. If a copy of the MPL was not distributed with this
+ * file, you can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package com.goterl.resourceloader;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.UserPrincipal;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Hands out the temporary directories that resources are extracted to.
+ * <p>
+ * Every directory lives inside one root per process, named after the
+ * process's PID and start time, such as
+ * {@code /tmp/resource-loader-1234-1712192820000-5678/}. The root is
+ * deleted, contents and all, by a shutdown hook. Files that can't be
+ * deleted while the process is running, like shared libraries on
+ * Windows, are left for the next process: the first time a root is
+ * made, roots left behind by processes that are no longer running are
+ * deleted in the background.
+ * </p>
+ * <p>
+ * Each process holds a lock on a {@code .lock} file in its root for as
+ * long as it runs, and a root is only deleted if that lock can be taken.
+ * This works even when {@code /tmp} is shared with processes whose PIDs
+ * we can't see, such as those in other containers. Roots are also left
+ * alone unless they belong to the same user and haven't been touched
+ * for {@link #MIN_AGE}.
+ * </p>
+ */
+final class TempDirectories {
+
+    private static final Logger logger = LoggerFactory.getLogger("ResourceLoader");
+
+    private static final String PREFIX = "resource-loader-";
+    private static final Pattern ROOT_NAME = Pattern.compile(Pattern.quote(PREFIX) + "(\\d{1,18})-(\\d{1,18})-.*");
+    private static final String LOCK_FILE = ".lock";
+
+    // How long a root has to have been left alone before it can be deleted.
+    static final Duration MIN_AGE = Duration.ofHours(1);
+
+    private static final Object lock = new Object();
+    private static volatile Path root;
+    private static boolean started;
+
+    // Held until the process exits, to show that the root is in use.
+    private static FileChannel lockChannel;
+
+    // Who this process runs as. See user().
+    private static volatile Optional<UserPrincipal> user;
+
+    private TempDirectories() {
+    }
+
+    /**
+     * @return A new, empty directory inside this process's root.
+     * @throws IOException If the directory could not be made.
+     */
+    static File create() throws IOException {
+        try {
+            return Files.createTempDirectory(root(), "resource-loader").toFile();
+        } catch (NoSuchFileException e) {
+            // Someone deleted the root from under us.
+            synchronized (lock) {
+                if (root != null && !Files.isDirectory(root)) {
+                    root = null;
+                }
+            }
+            return Files.createTempDirectory(root(), "resource-loader").toFile();
+        }
+    }
+
+    /**
+     * @return This process's root, making it the first time.
+     * @throws IOException If the root could not be made.
+     */
+    static Path root() throws IOException {
+        Path current = root;
+        if (current != null) {
+            return current;
+        }
+        synchronized (lock) {
+            if (root == null) {
+                Path tmp = Paths.get(System.getProperty("java.io.tmpdir")).toAbsolutePath();
+                root = Files.createTempDirectory(tmp, rootPrefix());
+                lockRoot(root);
+                logger.debug("Extracting resources to {}", root);
+                if (!started) {
+                    started = true;
+                    Runtime.getRuntime().addShutdownHook(new Thread(TempDirectories::deleteRoot, "resource-loader-cleanup"));
+                    Thread reaper = new Thread(() -> reap(tmp), "resource-loader-reaper");
+                    reaper.setDaemon(true);
+                    reaper.start();
+                }
+            }
+            return root;
+        }
+    }
+
+    /**
+     * @return The user this process runs as, taken from the owner of
+     * its root, or null if the file system doesn't keep track of owners.
+     * @throws IOException If the root could not be made.
+     */
+    static UserPrincipal user() throws IOException {
+        Optional<UserPrincipal> current = user;
+        if (current == null) {
+            current = Optional.ofNullable(ownerOf(root()));
+            user = current;
+        }
+        return current.orElse(null);
+    }
+
+    /**
+     * @param file A file or directory.
+     * @return True if it is inside this process's root, so will be
+     * deleted when the process exits.
+     */
+    static boolean contains(File file) {
+        Path current = root;
+        return current != null && file.toPath().toAbsolutePath().normalize().startsWith(current);
+    }
+
+    /**
+     * @param file A file or directory inside this process's root.
+     * @return The directory that {@link #create()} made for it.
+     */
+    static Path topOf(File file) {
+        Path current = root;
+        Path path = file.toPath().toAbsolutePath().normalize();
+        while (path.getParent() != null && !path.getParent().equals(current)) {
+            path = path.getParent();
+        }
+        return path;
+    }
+
+    /**
+     * Delete every root in {@code tmp} that is no longer in use. A root
+     * with a {@code .lock} file is in use while its lock is held. Older
+     * roots without one are in use while their process is running, and
+     * a root whose PID has since been reused by another process is told
+     * apart by its start time.
+     * @param tmp The directory the roots are in.
+     */
+    static void reap(Path tmp) {
+        try (DirectoryStream<Path> roots = Files.newDirectoryStream(tmp, PREFIX + "*")) {
+            UserPrincipal user = user();
+            for (Path candidate : roots) {
+                Matcher matcher = ROOT_NAME.matcher(candidate.getFileName().toString());
+                if (!matcher.matches() || candidate.equals(root) || !Files.isDirectory(candidate)
+                        || !isOldAndOwnedBy(candidate, user)) {
+                    continue;
+                }
+                Path lockFile = candidate.resolve(LOCK_FILE);
+                boolean stale = Files.exists(lockFile)
+                        ? isUnlocked(lockFile)
+                        : isStale(Long.parseLong(matcher.group(1)), Long.parseLong(matcher.group(2)));
+                if (stale) {
+                    logger.debug("Deleting {} which was left behind by an earlier process", candidate);
+                    delete(candidate);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.debug("Could not look for old temporary directories in {}", tmp, e);
+        }
+    }
+
+    /**
+     * Delete a file or directory and everything in it, skipping
+     * anything that can't be deleted.
+     */
+    static void delete(Path path) {
+        try {
+            Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    deleteQuietly(file);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(Path dir, IOException e) {
+                    deleteQuietly(dir);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            logger.debug("Could not delete {}", path, e);
+        }
+    }
+
+    private static void deleteRoot() {
+        Path current = root;
+        if (current != null) {
+            // Windows won't delete a file that is open.
+            closeQuietly(lockChannel);
+            delete(current);
+        }
+    }
+
+    private static void lockRoot(Path root) {
+        closeQuietly(lockChannel);
+        lockChannel = null;
+        FileChannel channel = null;
+        try {
+            channel = FileChannel.open(root.resolve(LOCK_FILE), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            if (channel.tryLock() != null) {
+                lockChannel = channel;
+                return;
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.debug("Could not lock {}", root, e);
+        }
+        // Without the lock the root looks abandoned, so don't leave
+        // a lock file that says otherwise. The minimum age still
+        // keeps it safe while we're using it.
+        closeQuietly(channel);
+        deleteQuietly(root.resolve(LOCK_FILE));
+    }
+
+    /**
+     * @return True if nobody holds the lock on {@code lockFile}.
+     */
+    private static boolean isUnlocked(Path lockFile) {
+        try (FileChannel channel = FileChannel.open(lockFile, StandardOpenOption.WRITE)) {
+            FileLock lock = channel.tryLock();
+            if (lock == null) {
+                return false;
+            }
+            lock.release();
+            return true;
+        } catch (OverlappingFileLockException e) {
+            // Held by this process, through another copy of this class.
+            return false;
+        } catch (IOException e) {
+            logger.debug("Could not check the lock on {}", lockFile, e);
+            return false;
+        }
+    }
+
+    private static boolean isOldAndOwnedBy(Path candidate, UserPrincipal user) throws IOException {
+        Instant modified = Files.getLastModifiedTime(candidate).toInstant();
+        if (modified.isAfter(Instant.now().minus(MIN_AGE))) {
+            return false;
+        }
+        return Objects.equals(ownerOf(candidate), user);
+    }
+
+    /**
+     * @return Who owns {@code path}, or null if the file
+     * system doesn't keep track of owners.
+     */
+    static UserPrincipal ownerOf(Path path) throws IOException {
+        try {
+            return Files.getOwner(path);
+        } catch (UnsupportedOperationException e) {
+            return null;
+        }
+    }
+
+    private static void closeQuietly(FileChannel channel) {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            logger.debug("Could not close {}", channel, e);
+        }
+    }
+
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            logger.debug("Could not delete {}", path, e);
+        }
+    }
+
+    private static boolean isStale(long pid, long startMillis) {
+        try {
+            Optional<ProcessHandle> process = ProcessHandle.of(pid);
+            if (!process.isPresent()) {
+                return true;
+            }
+            Optional<Instant> startedAt = process.get().info().startInstant();
+            return startMillis != 0 && startedAt.isPresent() && startedAt.get().toEpochMilli() != startMillis;
+        } catch (UnsupportedOperationException | SecurityException e) {
+            return false;
+        }
+    }
+
+    private static String rootPrefix() {
+        ProcessHandle self = ProcessHandle.current();
+        long startMillis = self.info().startInstant().map(Instant::toEpochMilli).orElse(0L);
+        return PREFIX + self.pid() + "-" + startMillis + "-";
+    }
+}
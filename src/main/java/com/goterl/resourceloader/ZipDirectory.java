@@ -0,0 +1,466 @@
+/*
+ * Copyright (c) Terl Tech Ltd  • 04/04/2021, 00:07 • goterl.com
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v2.0. If a copy of the MPL was not distributed with this
+ * file, you can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package com.goterl.resourceloader;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * Reads the central directory of a zip archive that starts
+ * somewhere inside a {@link FileChannel}. The archive can be a
+ * plain JAR on disk or a JAR that is STORED inside another JAR,
+ * in which case it is read in place without being extracted.
+ * <p>
+ * The directory itself is kept in a {@link CentralDirectoryIndex}.
+ * Indexes of archives on disk are shared, so every loader reading the
+ * same JAR only parses its central directory once.
+ * </p>
+ */
+final class ZipDirectory {
+
+    private static final int END_SIG = 0x06054b50;
+    private static final int ZIP64_END_SIG = 0x06064b50;
+    private static final int ZIP64_LOCATOR_SIG = 0x07064b50;
+    private static final int LOC_SIG = 0x04034b50;
+
+    private static final int END_HEADER = 22;
+    private static final int ZIP64_LOCATOR_HEADER = 20;
+    private static final int LOC_HEADER = 30;
+    private static final int MAX_COMMENT = 0xFFFF;
+
+    // Indexes of archives on disk, by file and where in the
+    // file the archive starts. Each remembers the size and modified
+    // time of the file so a rebuilt JAR gets a new index. The indexes
+    // are softly held, so the garbage collector can take them back
+    // if many large JARs have been read.
+    private static final ConcurrentMap<IndexKey, SharedIndex> INDEXES = new ConcurrentHashMap<>();
+
+    private final FileChannel channel;
+    private final long base;
+    private final CentralDirectoryIndex index;
+
+    // Whether this archive is inside another one.
+    private final boolean nested;
+
+    private ZipDirectory(FileChannel channel, long base, CentralDirectoryIndex index, boolean nested) {
+        this.channel = channel;
+        this.base = base;
+        this.index = index;
+        this.nested = nested;
+    }
+
+    /**
+     * Like {@link #read(FileChannel, long, long)} but reuses the index
+     * built by an earlier read of the same archive, as long as the file
+     * has not changed since.
+     * @param file The file the channel was opened on.
+     * @param channel A channel to read from. It is not closed by this class.
+     * @param start Where the archive starts.
+     * @param length How long the archive is.
+     * @return The archive's directory.
+     * @throws IOException If the archive could not be read or is not a zip.
+     */
+    static ZipDirectory read(Path file, FileChannel channel, long start, long length) throws IOException {
+        long opening = Metrics.start();
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        IndexKey key = new IndexKey(file.toAbsolutePath().normalize(), start);
+        SharedIndex shared = INDEXES.get(key);
+        CentralDirectoryIndex index = shared == null ? null : shared.index.get();
+        if (index != null
+                && shared.size == attributes.size()
+                && shared.lastModified == attributes.lastModifiedTime().toMillis()) {
+            Metrics.cache(LoaderMetrics.Cache.ARCHIVE_INDEXES, file, true);
+            Metrics.end(LoaderMetrics.Phase.ARCHIVE_OPEN, file, opening);
+            return new ZipDirectory(channel, shared.base, index, start > 0);
+        }
+        Metrics.cache(LoaderMetrics.Cache.ARCHIVE_INDEXES, file, false);
+        ZipDirectory directory = read(channel, start, length);
+        INDEXES.put(key, new SharedIndex(
+                attributes.size(),
+                attributes.lastModifiedTime().toMillis(),
+                directory.base,
+                directory.index
+        ));
+        Metrics.end(LoaderMetrics.Phase.ARCHIVE_OPEN, file, opening);
+        return directory;
+    }
+
+    /**
+     * Read the central directory of the archive that occupies
+     * {@code length} bytes starting at {@code start} in the channel.
+     * @param channel A channel to read from. It is not closed by this class.
+     * @param start Where the archive starts.
+     * @param length How long the archive is.
+     * @return The archive's directory.
+     * @throws IOException If the archive could not be read or is not a zip.
+     */
+    static ZipDirectory read(FileChannel channel, long start, long length) throws IOException {
+        int tailLength = (int) Math.min(length, END_HEADER + MAX_COMMENT);
+        ByteBuffer tail = readFully(channel, start + length - tailLength, tailLength);
+
+        int end = -1;
+        for (int i = tailLength - END_HEADER; i >= 0; i--) {
+            if (tail.getInt(i) == END_SIG) {
+                end = i;
+                break;
+            }
+        }
+        if (end < 0) {
+            throw new ZipException("Could not find the end of the central directory");
+        }
+
+        long endPosition = start + length - tailLength + end;
+        long count = tail.getShort(end + 10) & 0xFFFF;
+        long cenSize = tail.getInt(end + 12) & 0xFFFFFFFFL;
+        long cenOffset = tail.getInt(end + 16) & 0xFFFFFFFFL;
+
+        if (count == 0xFFFF || cenSize == 0xFFFFFFFFL || cenOffset == 0xFFFFFFFFL) {
+            ByteBuffer locator = readFully(channel, endPosition - ZIP64_LOCATOR_HEADER, ZIP64_LOCATOR_HEADER);
+            if (locator.getInt(0) != ZIP64_LOCATOR_SIG) {
+                throw new ZipException("Missing zip64 end of central directory locator");
+            }
+            long zip64End = start + locator.getLong(8);
+            ByteBuffer zip64 = readFully(channel, zip64End, 56);
+            if (zip64.getInt(0) != ZIP64_END_SIG) {
+                throw new ZipException("Missing zip64 end of central directory");
+            }
+            count = zip64.getLong(32);
+            cenSize = zip64.getLong(40);
+            cenOffset = zip64.getLong(48);
+            endPosition = zip64End;
+        }
+
+        // Offsets are relative to the start of the zip data. Anything
+        // in front of it, like a launch script, shifts every offset.
+        long cenPosition = endPosition - cenSize;
+        long archiveBase = cenPosition - cenOffset;
+        if (cenSize > Integer.MAX_VALUE || archiveBase < start) {
+            throw new ZipException("Invalid central directory");
+        }
+
+        ByteBuffer cen = readFully(channel, cenPosition, (int) cenSize);
+        return new ZipDirectory(channel, archiveBase, CentralDirectoryIndex.parse(cen, count), start > 0);
+    }
+
+    /**
+     * @return {@link ResourceLocation.Kind#NESTED_JAR} if this archive is
+     * inside another one, otherwise {@link ResourceLocation.Kind#JAR}.
+     */
+    ResourceLocation.Kind kind() {
+        return nested ? ResourceLocation.Kind.NESTED_JAR : ResourceLocation.Kind.JAR;
+    }
+
+    /**
+     * @return A key that only changes when the archive's entries do.
+     * @see CentralDirectoryIndex#contentKey()
+     */
+    String contentKey() {
+        return index.contentKey();
+    }
+
+    /**
+     * @param prefix A name prefix such as {@code lib/}. An empty
+     *               prefix matches every entry.
+     * @return Every entry whose name starts with the prefix, in name order.
+     * This only looks at the matching entries, not the whole archive.
+     */
+    List<Entry> entriesUnder(String prefix) {
+        int[] matches = index.findUnder(prefix);
+        List<Entry> entries = new ArrayList<>(matches.length);
+        for (int i : matches) {
+            entries.add(entry(i));
+        }
+        return entries;
+    }
+
+    /**
+     * @param name The full name of an entry.
+     * @return The entry or null if there is no such entry.
+     */
+    Entry find(String name) {
+        int i = index.find(name);
+        return i < 0 ? null : entry(i);
+    }
+
+    private Entry entry(int i) {
+        return new Entry(
+                i,
+                index.name(i),
+                index.method(i),
+                index.crc(i),
+                index.compressedSize(i),
+                index.size(i),
+                index.localOffset(i)
+        );
+    }
+
+    /**
+     * @param entry An entry in this archive.
+     * @return The position in the channel of the entry's (possibly compressed) data.
+     * @throws IOException If the entry's local header is invalid.
+     */
+    long dataOffset(Entry entry) throws IOException {
+        long loc = base + entry.localOffset;
+        ByteBuffer header = readFully(channel, loc, LOC_HEADER);
+        if (header.getInt(0) != LOC_SIG) {
+            throw new ZipException("Invalid local header for " + entry.name);
+        }
+        int nameLength = header.getShort(26) & 0xFFFF;
+        int extraLength = header.getShort(28) & 0xFFFF;
+        return loc + LOC_HEADER + nameLength + extraLength;
+    }
+
+    /**
+     * Open an entry's contents, inflating them if the entry is compressed.
+     * @param entry An entry in this archive.
+     * @return The entry's uncompressed contents.
+     * @throws IOException If the entry could not be read.
+     */
+    InputStream openStream(Entry entry) throws IOException {
+        InputStream raw = new ChannelRangeInputStream(channel, dataOffset(entry), entry.compressedSize);
+        switch (entry.method) {
+            case ZipEntry.STORED:
+                return raw;
+            case ZipEntry.DEFLATED:
+                return new EntryInflaterInputStream(raw);
+            default:
+                throw new ZipException("Unsupported compression method " + entry.method + " for " + entry.name);
+        }
+    }
+
+    /**
+     * Copy a STORED entry's bytes straight from the archive's channel.
+     * @param entry A STORED entry in this archive.
+     * @param target Where to copy the entry to.
+     * @throws IOException If the entry could not be copied.
+     */
+    void transferTo(Entry entry, WritableByteChannel target) throws IOException {
+        if (entry.method != ZipEntry.STORED) {
+            throw new ZipException(entry.name + " is compressed");
+        }
+        long position = dataOffset(entry);
+        long remaining = entry.size;
+        while (remaining > 0) {
+            long transferred = channel.transferTo(position, remaining, target);
+            if (transferred <= 0) {
+                throw new EOFException("Unexpected end of archive");
+            }
+            position += transferred;
+            remaining -= transferred;
+        }
+    }
+
+    /**
+     * Map a STORED entry's bytes straight from the archive. The
+     * mapping stays valid after the channel has been closed.
+     * @param entry A STORED entry in this archive.
+     * @return A read-only buffer of the entry's contents.
+     * @throws IOException If the entry could not be mapped.
+     */
+    MappedByteBuffer map(Entry entry) throws IOException {
+        if (entry.method != ZipEntry.STORED) {
+            throw new ZipException(entry.name + " is compressed");
+        }
+        return channel.map(FileChannel.MapMode.READ_ONLY, dataOffset(entry), entry.size);
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new EOFException("Unexpected end of archive");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * A central directory record. Entries are only created when they're
+     * asked for. Two entries are equal if they are the same record.
+     */
+    static final class Entry {
+        private final int number;
+        final String name;
+        final int method;
+        final long crc;
+        final long compressedSize;
+        final long size;
+        final long localOffset;
+
+        Entry(int number, String name, int method, long crc, long compressedSize, long size, long localOffset) {
+            this.number = number;
+            this.name = name;
+            this.method = method;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.localOffset = localOffset;
+        }
+
+        boolean isDirectory() {
+            return name.endsWith("/");
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Entry && ((Entry) o).number == number;
+        }
+
+        @Override
+        public int hashCode() {
+            return number;
+        }
+    }
+
+    private static final class IndexKey {
+        private final Path file;
+        private final long start;
+
+        IndexKey(Path file, long start) {
+            this.file = file;
+            this.start = start;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof IndexKey)) {
+                return false;
+            }
+            IndexKey other = (IndexKey) o;
+            return file.equals(other.file) && start == other.start;
+        }
+
+        @Override
+        public int hashCode() {
+            return file.hashCode() * 31 + Long.hashCode(start);
+        }
+    }
+
+    private static final class SharedIndex {
+        private final long size;
+        private final long lastModified;
+        private final long base;
+        private final SoftReference<CentralDirectoryIndex> index;
+
+        SharedIndex(long size, long lastModified, long base, CentralDirectoryIndex index) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.base = base;
+            this.index = new SoftReference<>(index);
+        }
+    }
+
+    /**
+     * Reads a range of a channel using positional reads, so
+     * many of these can share one channel.
+     */
+    private static final class ChannelRangeInputStream extends InputStream {
+        private final FileChannel channel;
+        private long position;
+        private final long end;
+
+        ChannelRangeInputStream(FileChannel channel, long position, long length) {
+            this.channel = channel;
+            this.position = position;
+            this.end = position + length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (position >= end) {
+                return -1;
+            }
+            int toRead = (int) Math.min(len, end - position);
+            int read = channel.read(ByteBuffer.wrap(b, off, toRead), position);
+            if (read < 0) {
+                throw new EOFException("Unexpected end of archive");
+            }
+            position += read;
+            return read;
+        }
+
+        @Override
+        public long skip(long n) {
+            long skipped = Math.max(0, Math.min(n, end - position));
+            position += skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(Integer.MAX_VALUE, end - position);
+        }
+    }
+
+    /**
+     * Inflates raw deflate data. Like the one used by {@link java.util.zip.ZipFile}
+     * this feeds the inflater a trailing dummy byte, which it needs
+     * when the data has no zlib wrapper.
+     */
+    static final class EntryInflaterInputStream extends InflaterInputStream {
+        private boolean eof;
+
+        EntryInflaterInputStream(InputStream in) {
+            this(in, 8192);
+        }
+
+        EntryInflaterInputStream(InputStream in, int size) {
+            super(in, new Inflater(true), size);
+        }
+
+        @Override
+        protected void fill() throws IOException {
+            if (eof) {
+                throw new EOFException("Unexpected end of deflated data");
+            }
+            len = in.read(buf, 0, buf.length);
+            if (len == -1) {
+                buf[0] = 0;
+                len = 1;
+                eof = true;
+            }
+            inf.setInput(buf, 0, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                inf.end();
+            }
+        }
+    }
+}
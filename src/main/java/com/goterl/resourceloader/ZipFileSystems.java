@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) Terl Tech Ltd  • 04/04/2021, 00:07 • goterl.com
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v2.0. If a copy of the MPL was not distributed with this
+ * file, you can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package com.goterl.resourceloader;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.ProviderNotFoundException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Zip file systems ({@code jdk.zipfs}) opened on JARs, shared by
+ * everyone reading the same JAR. Each one counts how many times it has
+ * been opened and is closed when it has been released as many times.
+ * A JAR inside another JAR is opened through the outer JAR's file
+ * system, which stays open for as long as the inner one is. They can
+ * only be read, so nothing written through a path ends up in the JAR.
+ */
+final class ZipFileSystems {
+
+    private static final Logger logger = LoggerFactory.getLogger("ResourceLoader");
+
+    // Keyed by the JAR on disk followed by the nested JARs.
+    private static final Map<List<String>, Shared> OPEN = new HashMap<>();
+
+    private ZipFileSystems() {
+    }
+
+    /**
+     * Open the file system of the innermost JAR, or share the one
+     * that is already open. Call {@link Shared#release()} once
+     * you're done with it.
+     * @param jar The JAR on disk.
+     * @param nestedJars The names of the JARs to descend into, outermost first.
+     * @return The innermost JAR's file system.
+     * @throws IOException If one of the JARs could not be opened.
+     */
+    static Shared open(File jar, List<String> nestedJars) throws IOException {
+        synchronized (OPEN) {
+            List<String> key = new ArrayList<>();
+            key.add(jar.getAbsolutePath());
+            Shared shared = acquire(key, null, jar.toPath());
+            try {
+                for (String nestedJar : nestedJars) {
+                    key.add(JarExtractor.stripSlashes(nestedJar));
+                    Path inner = shared.zip.getPath("/" + JarExtractor.stripSlashes(nestedJar));
+                    if (!Files.isRegularFile(inner)) {
+                        throw new FileNotFoundException(nestedJar + " does not exist in " + key.subList(0, key.size() - 1));
+                    }
+                    Shared parent = shared;
+                    shared = acquire(key, parent, inner);
+                    // The inner file system holds its own reference on the parent.
+                    parent.releaseLocked();
+                }
+            } catch (IOException | RuntimeException | Error e) {
+                shared.releaseLocked();
+                throw e;
+            }
+            return shared;
+        }
+    }
+
+    /**
+     * @return How many file systems are open. For tests.
+     */
+    static int openCount() {
+        synchronized (OPEN) {
+            return OPEN.size();
+        }
+    }
+
+    private static Shared acquire(List<String> key, Shared parent, Path archive) throws IOException {
+        Shared shared = OPEN.get(key);
+        if (shared != null) {
+            shared.references++;
+            return shared;
+        }
+        long opening = Metrics.start();
+        FileSystem fileSystem;
+        try {
+            fileSystem = FileSystems.newFileSystem(archive, Map.of("accessMode", "readOnly"), (ClassLoader) null);
+        } catch (ProviderNotFoundException e) {
+            throw new IOException("Zip file systems are not supported, is the jdk.zipfs module missing?", e);
+        }
+        Metrics.end(LoaderMetrics.Phase.ARCHIVE_OPEN, archive, opening);
+        if (parent != null) {
+            parent.references++;
+        }
+        shared = new Shared(List.copyOf(key), parent, fileSystem);
+        OPEN.put(shared.key, shared);
+        return shared;
+    }
+
+    static final class Shared {
+        private final List<String> key;
+        private final Shared parent;
+        private final FileSystem zip;
+        // What everyone outside reads through.
+        final FileSystem fileSystem;
+        private int references = 1;
+
+        private Shared(List<String> key, Shared parent, FileSystem zip) {
+            this.key = key;
+            this.parent = parent;
+            this.zip = zip;
+            this.fileSystem = ReadOnlyFileSystem.of(zip);
+        }
+
+        /**
+         * Give up one reference, closing the file
+         * system if it was the last one.
+         */
+        void release() {
+            synchronized (OPEN) {
+                releaseLocked();
+            }
+        }
+
+        private void releaseLocked() {
+            if (--references > 0) {
+                return;
+            }
+            OPEN.remove(key, this);
+            try {
+                zip.close();
+            } catch (IOException e) {
+                logger.debug("Could not close the file system of {}", key, e);
+            }
+            if (parent != null) {
+                parent.releaseLocked();
+            }
+        }
+    }
+}
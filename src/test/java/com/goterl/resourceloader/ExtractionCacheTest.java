@@ -0,0 +1,252 @@
+/*
+ * Copyright (c) Terl Tech Ltd  • 04/04/2021, 00:07 • goterl.com
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v2.0. If a copy of the MPL was not distributed with this
+ * file, you can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package com.goterl.resourceloader;
+
+import org.testng.SkipException;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URL;
+import java.nio.MappedByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class ExtractionCacheTest {
+
+    private File cacheDir;
+
+    @BeforeMethod
+    public void enableCache() throws Exception {
+        cacheDir = Files.createTempDirectory("resource-loader-cache").toFile();
+        ResourceLoader.enablePersistentCache(cacheDir);
+    }
+
+    @AfterMethod
+    public void disableCache() {
+        ResourceLoader.disablePersistentCache();
+    }
+
+    @Test
+    public void extractsIntoTheCache() throws Exception {
+        URL urlToJar = getClass().getResource("/jarinjar.jar");
+        File f = FileLoader.get().extractFromWithinAJarFile(urlToJar, FileLoader.createMainTempDirectory(), "mac/libsodium.dylib");
+
+        assertThat(f).exists().isNotEmpty();
+        assertThat(f.getAbsolutePath()).startsWith(cacheDir.getAbsolutePath());
+    }
+
+    @Test
+    public void reusesCachedEntries() throws Exception {
+        URL urlToJar = getClass().getResource("/jarinjar.jar");
+        File first = FileLoader.get().extractFromWithinAJarFile(urlToJar, FileLoader.createMainTempDirectory(), "mac/libsodium.dylib");
+        long modified = first.lastModified();
+        File second = FileLoader.get().extractFromWithinAJarFile(urlToJar, FileLoader.createMainTempDirectory(), "mac/libsodium.dylib");
+
+        assertThat(second).isEqualTo(first);
+        assertThat(second.lastModified()).isEqualTo(modified);
+    }
+
+    @Test
+    public void replacesPartialEntries() throws Exception {
+        URL urlToJar = getClass().getResource("/jarinjar.jar");
+        File first = FileLoader.get().extractFromWithinAJarFile(urlToJar, FileLoader.createMainTempDirectory(), "mac/libsodium.dylib");
+        long size = first.length();
+        Files.write(first.toPath(), new byte[10]);
+
+        File second = FileLoader.get().extractFromWithinAJarFile(urlToJar, FileLoader.createMainTempDirectory(), "mac/libsodium.dylib");
+        assertThat(second).hasSize(size);
+    }
+
+    @Test
+    public void cachedFilesAreNotDeleted() throws Exception {
+        URL urlToJar = getClass().getResource("/jarinjar.jar");
+        File f = FileLoader.get().extractFromWithinAJarFile(urlToJar, FileLoader.createMainTempDirectory(), "mac/libsodium.dylib");
+        FileLoader.get().requestDeletion(f);
+
+        assertThat(f).exists();
+    }
+
+    @Test
+    public void missingEntriesAreNotCreated() throws Exception {
+        File jar = Jars.writeJar(Map.of("data/a.txt", "a".getBytes(StandardCharsets.UTF_8)), false);
+        Class<?> anchor = Jars.anchor(jar);
+        Map<String, Exception> failures = new HashMap<>();
+
+        Map<String, File> files = FileLoader.get().loadAll(List.of("nope"), new HashSet<>(), anchor, failures::put);
+
+        assertThat(files).isEmpty();
+        assertThat(failures).containsOnlyKeys("nope");
+        assertThatThrownBy(() -> FileLoader.get().load("nope", anchor)).isInstanceOf(FileNotFoundException.class);
+        try (Stream<Path> walk = Files.walk(cacheDir.toPath())) {
+            assertThat(walk).noneMatch(path -> path.endsWith("nope"));
+        }
+    }
+
+    @Test
+    public void cacheHitsDontMakeTemporaryDirectories() throws Exception {
+        File jar = Jars.writeJar(Map.of("data/a.txt", "a".repeat(1000).getBytes(StandardCharsets.UTF_8)), false);
+        Class<?> anchor = Jars.anchor(jar);
+        ResourceLoader loader = new ResourceLoader();
+        Path root = TempDirectories.root();
+        List<Path> before = children(root);
+
+        File file = loader.copyToTempDirectory("data/a.txt", anchor);
+        MappedByteBuffer mapped = loader.mapResource("data/a.txt", anchor);
+
+        assertThat(file.getAbsolutePath()).startsWith(cacheDir.getAbsolutePath());
+        assertThat(mapped.remaining()).isEqualTo(1000);
+        assertThat(children(root)).isEqualTo(before);
+    }
+
+    @Test
+    public void copiesOfTheSameJarShareEntries() throws Exception {
+        Path jar = Paths.get(getClass().getResource("/jarinjar.jar").toURI());
+        Path copy = Files.copy(jar, Files.createTempDirectory("copy").resolve("app.jar"));
+        Files.setLastModifiedTime(copy, FileTime.fromMillis(0));
+
+        File first = FileLoader.get().extractFromWithinAJarFile(jar.toUri().toURL(), FileLoader.createMainTempDirectory(), "mac/libsodium.dylib");
+        File second = FileLoader.get().extractFromWithinAJarFile(copy.toUri().toURL(), FileLoader.createMainTempDirectory(), "mac/libsodium.dylib");
+
+        assertThat(second).isEqualTo(first);
+    }
+
+    @Test
+    public void cachedFilesKeepTheirPermissions() throws Exception {
+        skipUnlessPosix();
+        File jar = Jars.writeJar(Map.of("data/a.txt", "a".getBytes(StandardCharsets.UTF_8)), false);
+        Class<?> anchor = Jars.anchor(jar);
+        Set<PosixFilePermission> wanted = PosixFilePermissions.fromString("rw-r-----");
+
+        File cached = FileLoader.get().load("data/a.txt", anchor);
+        Set<PosixFilePermission> before = Files.getPosixFilePermissions(cached.toPath());
+        File loaded = FileLoader.get().load("data/a.txt", wanted, anchor);
+
+        assertThat(cached.getAbsolutePath()).startsWith(cacheDir.getAbsolutePath());
+        assertThat(Files.getPosixFilePermissions(cached.toPath())).isEqualTo(before);
+        assertThat(loaded.getAbsolutePath()).doesNotStartWith(cacheDir.getAbsolutePath());
+        assertThat(loaded).hasContent("a");
+        assertThat(Files.getPosixFilePermissions(loaded.toPath())).isEqualTo(wanted);
+        try (Stream<Path> walk = Files.walk(cacheDir.toPath())) {
+            walk.filter(path -> !path.equals(cacheDir.toPath()) && Files.isDirectory(path))
+                    .forEach(dir -> assertThat(permissionsOf(dir)).isEqualTo("rwx------"));
+        }
+    }
+
+    @Test
+    public void loadAllHandsOutTheCopyWithPermissions() throws Exception {
+        skipUnlessPosix();
+        File jar = Jars.writeJar(Map.of("data/a.txt", "a".getBytes(StandardCharsets.UTF_8)), false);
+        Class<?> anchor = Jars.anchor(jar);
+        Set<PosixFilePermission> wanted = PosixFilePermissions.fromString("rw-r-----");
+
+        File fromLoadAll = FileLoader.get().loadAll(List.of("data/a.txt"), wanted, anchor, (relativePath, e) -> {
+            throw new AssertionError(relativePath, e);
+        }).get("data/a.txt");
+        File fromLoad = FileLoader.get().load("data/a.txt", wanted, anchor);
+
+        assertThat(fromLoad).isEqualTo(fromLoadAll);
+        assertThat(fromLoad.getAbsolutePath()).doesNotStartWith(cacheDir.getAbsolutePath());
+        assertThat(Files.getPosixFilePermissions(fromLoad.toPath())).isEqualTo(wanted);
+    }
+
+    @Test
+    public void entriesOthersCanWriteToAreExtractedAgain() throws Exception {
+        skipUnlessPosix();
+        URL urlToJar = getClass().getResource("/jarinjar.jar");
+        File first = FileLoader.get().extractFromWithinAJarFile(urlToJar, FileLoader.createMainTempDirectory(), "mac/libsodium.dylib");
+        byte[] contents = Files.readAllBytes(first.toPath());
+        Files.write(first.toPath(), new byte[contents.length]);
+        Files.setPosixFilePermissions(first.toPath(), PosixFilePermissions.fromString("rw-rw-rw-"));
+
+        File second = FileLoader.get().extractFromWithinAJarFile(urlToJar, FileLoader.createMainTempDirectory(), "mac/libsodium.dylib");
+
+        assertThat(second).hasBinaryContent(contents);
+        assertThat(Files.getPosixFilePermissions(second.toPath()))
+                .doesNotContain(PosixFilePermission.GROUP_WRITE, PosixFilePermission.OTHERS_WRITE);
+    }
+
+    @Test
+    public void concurrentExtractionsOnlyExtractOnce() throws Exception {
+        URL urlToJar = getClass().getResource("/jarinjar.jar");
+        AtomicInteger misses = new AtomicInteger();
+        ResourceLoader.setMetrics(new LoaderMetrics() {
+            @Override
+            public void cacheMiss(Cache cache, String resource) {
+                if (cache == Cache.PERSISTENT) {
+                    misses.incrementAndGet();
+                }
+            }
+        });
+        ExecutorService service = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<File>> futures = new ArrayList<>();
+            for (int i = 0; i < 16; i++) {
+                futures.add(service.submit(() -> FileLoader.get().extractFromWithinAJarFile(urlToJar, FileLoader.createMainTempDirectory(), "mac/libsodium.dylib")));
+            }
+            Set<File> files = new HashSet<>();
+            for (Future<File> future : futures) {
+                files.add(future.get(30, TimeUnit.SECONDS));
+            }
+
+            assertThat(files).hasSize(1);
+            assertThat(misses).hasValue(1);
+        } finally {
+            service.shutdown();
+            ResourceLoader.setMetrics(null);
+        }
+    }
+
+    private static void skipUnlessPosix() {
+        if (!FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+            throw new SkipException("File permissions are only checked on POSIX file systems");
+        }
+    }
+
+    private static List<Path> children(Path dir) throws IOException {
+        try (Stream<Path> list = Files.list(dir)) {
+            return list.sorted().collect(Collectors.toList());
+        }
+    }
+
+    private static String permissionsOf(Path path) {
+        try {
+            return PosixFilePermissions.toString(Files.getPosixFilePermissions(path));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+}
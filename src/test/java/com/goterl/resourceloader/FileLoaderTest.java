@@ -8,11 +8,37 @@
 
 package com.goterl.resourceloader;
 
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
 import org.testng.annotations.BeforeClass;
 import org.testng.annotations.Test;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
 
 import static org.assertj.core.api.Assertions.*;
 
@@ -78,4 +104,337 @@ public class FileLoaderTest {
                 .exists();
     }
 
+    @Test
+    public void extractAFileFromANestedJarWithoutWritingTheNestedJar() throws Exception {
+        URL urlToJar = getClass().getResource("/jarinjar.jar");
+        File tempDir = FileLoader.createMainTempDirectory();
+        File f = fileLoader.extractFromWithinAJarFile(urlToJar, tempDir, "lazysodium.jar/linux/libsodium.so");
+
+        assertThat(f).exists().isNotEmpty();
+        assertThat(new File(tempDir, "lazysodium.jar"))
+                .as("The nested JAR is streamed, not extracted")
+                .doesNotExist();
+    }
+
+    @Test
+    public void extractOnlyTheRequestedFile() throws Exception {
+        URL urlToJar = getClass().getResource("/jarinjar.jar");
+        File tempDir = FileLoader.createMainTempDirectory();
+        File f = fileLoader.extractFromWithinAJarFile(urlToJar, tempDir, "mac/libsodium.dylib");
+
+        assertThat(f)
+                .as("Extract a single file from a JAR")
+                .exists()
+                .isNotEmpty();
+        assertThat(tempDir.list())
+                .as("Only the requested file should be extracted")
+                .containsExactly("mac");
+    }
+
+    @Test
+    public void extractADirectoryFromAJar() throws Exception {
+        URL urlToJar = getClass().getResource("/jarinjar.jar");
+        File tempDir = FileLoader.createMainTempDirectory();
+        File f = fileLoader.extractFromWithinAJarFile(urlToJar, tempDir, "windows64");
+
+        assertThat(f)
+                .as("Extract a directory from a JAR")
+                .isDirectory()
+                .isNotEmptyDirectory();
+        assertThat(new File(f, "libsodium.dll")).exists();
+        assertThat(tempDir.list()).containsExactly("windows64");
+    }
+
+    @Test
+    public void loadingTwiceReturnsTheSameFile() throws Exception {
+        File first = fileLoader.load("folder/test2.txt", FileLoaderTest.class);
+        File second = fileLoader.load("folder/test2.txt", FileLoaderTest.class);
+
+        assertThat(second)
+                .as("A file that is already loaded is not extracted again")
+                .isEqualTo(first);
+    }
+
+    @Test
+    public void loadingADeletedFileExtractsItAgain() throws Exception {
+        File first = fileLoader.load("folder2/test3.txt", FileLoaderTest.class);
+        assertThat(first.delete()).isTrue();
+        File second = fileLoader.load("folder2/test3.txt", FileLoaderTest.class);
+
+        assertThat(second).exists();
+    }
+
+    @Test
+    public void concurrentLoadsShareOneExtraction() throws Exception {
+        ExecutorService service = Executors.newFixedThreadPool(8);
+        List<Future<File>> futures = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            futures.add(service.submit(() -> fileLoader.load("folder2/test4.txt", FileLoaderTest.class)));
+        }
+        Set<File> files = new HashSet<>();
+        for (Future<File> future : futures) {
+            files.add(future.get(30, TimeUnit.SECONDS));
+        }
+        service.shutdown();
+
+        assertThat(files).hasSize(1);
+    }
+
+    @Test
+    public void closingTheLastHandleDeletesTheFile() throws Exception {
+        LoadedResource first = fileLoader.open("folder/test2.txt", FileLoaderTest.class);
+        LoadedResource second = fileLoader.open("folder/test2.txt", FileLoaderTest.class);
+        File file = first.getFile();
+
+        assertThat(second.getFile()).isEqualTo(file).hasContent("test file 2");
+        assertThat(file).isNotEqualTo(fileLoader.load("folder/test2.txt", FileLoaderTest.class));
+
+        first.close();
+        first.close();
+        assertThat(file).as("Still open through the second handle").exists();
+
+        second.close();
+        assertThat(file).doesNotExist();
+        assertThat(second.isOpen()).isFalse();
+
+        try (LoadedResource again = fileLoader.open("folder/test2.txt", FileLoaderTest.class)) {
+            assertThat(again.getFile()).isNotEqualTo(file).exists();
+        }
+    }
+
+    @Test
+    public void lazyDirectoriesOnlyLoadTheFilesAskedFor() throws Exception {
+        LazyDirectory directory = fileLoader.loadLazily("folder2", FileLoaderTest.class);
+        assertThat(directory.list()).containsExactly("test1.txt", "test2.txt", "test3.txt", "test4.txt");
+
+        File file = directory.getFile("test2.txt");
+
+        assertThat(file).exists();
+        assertThat(file.getParentFile().list()).containsExactly("test2.txt");
+        // Files keep their path relative to the resources folder.
+        assertThat(file.getParentFile()).hasName("folder2");
+        assertThat(directory.getFile("test2.txt")).isEqualTo(file);
+        assertThat(directory.isLoaded("test3.txt")).isFalse();
+        assertThatThrownBy(() -> directory.getFile("test5.txt")).isInstanceOf(FileNotFoundException.class);
+    }
+
+    @Test
+    public void loadAGzippedVariant() throws Exception {
+        File file = fileLoader.load("compressed/gzipped.txt", FileLoaderTest.class);
+
+        assertThat(file).hasName("gzipped.txt").hasContent("this was compressed");
+    }
+
+    @Test
+    public void readADeflatedVariant() throws Exception {
+        byte[] bytes = fileLoader.readAllBytes("compressed/deflated.txt", FileLoaderTest.class);
+
+        assertThat(new String(bytes, StandardCharsets.UTF_8)).isEqualTo("this was compressed\n");
+    }
+
+    @Test
+    public void variantsWorkInAJar() throws Exception {
+        byte[] contents = new byte[200 * 1024];
+        new Random(7).nextBytes(contents);
+        ByteArrayOutputStream deflated = new ByteArrayOutputStream();
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try (DeflaterOutputStream out = new DeflaterOutputStream(deflated, deflater)) {
+            out.write(contents);
+        } finally {
+            deflater.end();
+        }
+        Class<?> anchor = Jars.anchor(Jars.writeJar(Map.of("data/random.bin.deflate", deflated.toByteArray()), true));
+
+        assertThat(fileLoader.exists("data/random.bin", anchor)).isTrue();
+        assertThat(fileLoader.exists("data/missing.bin", anchor)).isFalse();
+        assertThat(fileLoader.readAllBytes("data/random.bin", anchor)).isEqualTo(contents);
+        assertThat(fileLoader.load("data/random.bin", anchor)).hasBinaryContent(contents);
+    }
+
+    @Test
+    public void extractAStoredEntry() throws Exception {
+        byte[] contents = new byte[64 * 1024];
+        new Random(42).nextBytes(contents);
+        File jar = Jars.writeJar(Map.of("native/libstored.so", contents), true);
+
+        File tempDir = FileLoader.createMainTempDirectory();
+        File f = fileLoader.extractFromWithinAJarFile(jar.toURI().toURL(), tempDir, "native/libstored.so");
+
+        assertThat(f)
+                .as("Extract an uncompressed entry")
+                .hasBinaryContent(contents);
+    }
+
+    @Test
+    public void loadManyFilesAtOnce() throws Exception {
+        Map<String, Exception> failures = new HashMap<>();
+        Map<String, File> files = fileLoader.loadAll(
+                Arrays.asList("test1.txt", "folder2", "does/not/exist.txt"),
+                new HashSet<>(),
+                FileLoaderTest.class,
+                failures::put
+        );
+
+        assertThat(files).containsOnlyKeys("test1.txt", "folder2");
+        assertThat(files.get("test1.txt")).hasContent("this is a test");
+        assertThat(files.get("folder2")).isDirectory().isNotEmptyDirectory();
+        assertThat(failures).containsOnlyKeys("does/not/exist.txt");
+    }
+
+    @Test
+    public void loadManyFilesJoinsLoadsInFlight() throws Exception {
+        CompletableFuture<File> loading = fileLoader.loadAsync("folder2/test4.txt", FileLoaderTest.class);
+        Map<String, Exception> failures = new HashMap<>();
+        Map<String, File> files = fileLoader.loadAll(
+                Arrays.asList("folder2/test4.txt", "compressed/deflated.txt"),
+                new HashSet<>(),
+                FileLoaderTest.class,
+                failures::put
+        );
+
+        assertThat(failures).isEmpty();
+        assertThat(files.get("folder2/test4.txt")).isEqualTo(loading.get(30, TimeUnit.SECONDS));
+        assertThat(files.get("compressed/deflated.txt")).hasContent("this was compressed");
+    }
+
+    @Test
+    public void loadAsyncSharesOneExtraction() throws Exception {
+        CompletableFuture<File> first = fileLoader.loadAsync("folder2/test1.txt", FileLoaderTest.class);
+        CompletableFuture<File> second = fileLoader.loadAsync("folder2/test1.txt", FileLoaderTest.class);
+
+        assertThat(first.get(30, TimeUnit.SECONDS))
+                .hasContent("this is a test")
+                .isEqualTo(second.get(30, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void loadAsyncFailsTheFutureForAMissingFile() {
+        CompletableFuture<File> future = fileLoader.loadAsync("does/not/exist.txt", FileLoaderTest.class);
+
+        assertThatThrownBy(() -> future.get(30, TimeUnit.SECONDS))
+                .hasCauseInstanceOf(IOException.class);
+    }
+
+    @Test
+    public void extractADirectoryFromALargeJar() throws Exception {
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        for (int i = 0; i < 20000; i++) {
+            entries.put("dir" + (i % 100) + "/file" + i + ".txt", Integer.toString(i).getBytes());
+        }
+        File jar = Jars.writeJar(entries, false);
+
+        File tempDir = FileLoader.createMainTempDirectory();
+        File dir = fileLoader.extractFromWithinAJarFile(jar.toURI().toURL(), tempDir, "dir7");
+        File file = fileLoader.extractFromWithinAJarFile(jar.toURI().toURL(), tempDir, "dir42/file1942.txt");
+
+        assertThat(dir.list()).hasSize(200);
+        assertThat(new File(dir, "file7.txt")).hasContent("7");
+        assertThat(file).hasContent("1942");
+    }
+
+    @Test
+    public void loadFilesMatchingAGlob() throws Exception {
+        List<File> files = fileLoader.loadMatching("folder2/*.txt", FileLoaderTest.class);
+
+        assertThat(files)
+                .extracting(File::getName)
+                .containsExactly("test1.txt", "test2.txt", "test3.txt", "test4.txt");
+        assertThat(files.get(0).getParentFile()).hasName("folder2");
+    }
+
+    @Test
+    public void metricsAreReportedForEachPhase() throws Exception {
+        File jar = directoryJar();
+
+        List<String> events = new CopyOnWriteArrayList<>();
+        ResourceLoader.setMetrics(new LoaderMetrics() {
+            @Override
+            public void phase(Phase phase, String resource, long nanos) {
+                events.add(phase + " " + resource);
+            }
+
+            @Override
+            public void extracted(String resource, int entries, long bytes) {
+                events.add("extracted " + resource + " " + entries + " " + bytes);
+            }
+
+            @Override
+            public void cacheHit(Cache cache, String resource) {
+                events.add("hit " + cache);
+            }
+
+            @Override
+            public void cacheMiss(Cache cache, String resource) {
+                events.add("miss " + cache);
+            }
+        });
+        try {
+            File tempDir = FileLoader.createMainTempDirectory();
+            fileLoader.extractFromWithinAJarFile(jar.toURI().toURL(), tempDir, "dir");
+            fileLoader.extractFromWithinAJarFile(jar.toURI().toURL(), tempDir, "dir/a.txt");
+            File copy = fileLoader.copyToTempDirectory("test1.txt", FileLoaderTest.class);
+            fileLoader.setPermissions(copy);
+        } finally {
+            ResourceLoader.setMetrics(null);
+        }
+
+        assertThat(events).contains(
+                "miss ARCHIVE_INDEXES",
+                "hit ARCHIVE_INDEXES",
+                "ARCHIVE_OPEN " + jar.toPath(),
+                "extracted dir 2 8",
+                "EXTRACTION dir",
+                "extracted dir/a.txt 1 4",
+                "COPY /test1.txt"
+        );
+        assertThat(events).anyMatch(event -> event.startsWith("PERMISSIONS "));
+    }
+
+    @Test
+    public void extractionEventsAreOnlyRecordedWhenEnabled() throws Exception {
+        File jar = directoryJar();
+
+        List<RecordedEvent> disabled = record(new Recording(), jar);
+        Recording enabled = new Recording();
+        enabled.enable("com.goterl.resourceloader.Extraction");
+        List<RecordedEvent> recorded = record(enabled, jar);
+
+        assertThat(disabled).isEmpty();
+        assertThat(recorded).hasSize(1);
+        RecordedEvent event = recorded.get(0);
+        assertThat(event.getString("resource")).isEqualTo("dir");
+        assertThat(event.getString("sourceKind")).isEqualTo("JAR");
+        assertThat(event.getInt("entries")).isEqualTo(2);
+        assertThat(event.getLong("bytesWritten")).isEqualTo(8);
+    }
+
+    /**
+     * @return A JAR with two four byte files in {@code dir}.
+     */
+    private static File directoryJar() throws IOException {
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        entries.put("dir/a.txt", "1234".getBytes());
+        entries.put("dir/b.txt", "1234".getBytes());
+        return Jars.writeJar(entries, false);
+    }
+
+    private List<RecordedEvent> record(Recording recording, File jar) throws Exception {
+        File tempDir = FileLoader.createMainTempDirectory();
+        Path dump = Files.createTempFile("loader", ".jfr");
+        try (Recording r = recording) {
+            r.start();
+            fileLoader.extractFromWithinAJarFile(jar.toURI().toURL(), tempDir, "dir");
+            r.stop();
+            r.dump(dump);
+        }
+        List<RecordedEvent> events = new ArrayList<>();
+        for (RecordedEvent event : RecordingFile.readAllEvents(dump)) {
+            if (event.getEventType().getName().equals("com.goterl.resourceloader.Extraction")) {
+                events.add(event);
+            }
+        }
+        Files.delete(dump);
+        return events;
+    }
+
 }
@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) Terl Tech Ltd  • 04/04/2021, 00:07 • goterl.com
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v2.0. If a copy of the MPL was not distributed with this
+ * file, you can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package com.goterl.resourceloader;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+
+// Writes the JARs that the tests load from.
+final class Jars {
+
+    private static final String ANCHOR = JarAnchor.class.getName().replace('.', '/') + ".class";
+
+    private Jars() {
+    }
+
+    /**
+     * Write a temporary JAR with a manifest and {@link JarAnchor} in it,
+     * so that it is treated like any other JAR on the class path.
+     * @param entries The entries' contents by name, in order.
+     * @param stored True to store every entry uncompressed, false to deflate them.
+     * @return The JAR.
+     */
+    static File writeJar(Map<String, byte[]> entries, boolean stored) throws IOException {
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        Map<String, byte[]> all = new LinkedHashMap<>();
+        all.put(ANCHOR, anchorClass());
+        all.putAll(entries);
+
+        File jar = File.createTempFile("test", ".jar");
+        jar.deleteOnExit();
+        try (JarOutputStream out = new JarOutputStream(new FileOutputStream(jar), manifest)) {
+            for (Map.Entry<String, byte[]> e : all.entrySet()) {
+                ZipEntry entry = new ZipEntry(e.getKey());
+                if (stored) {
+                    CRC32 crc = new CRC32();
+                    crc.update(e.getValue());
+                    entry.setMethod(ZipEntry.STORED);
+                    entry.setSize(e.getValue().length);
+                    entry.setCompressedSize(e.getValue().length);
+                    entry.setCrc(crc.getValue());
+                }
+                out.putNextEntry(entry);
+                out.write(e.getValue());
+                out.closeEntry();
+            }
+        }
+        return jar;
+    }
+
+    /**
+     * @param jar A JAR from {@link #writeJar(Map, boolean)}.
+     * @return {@link JarAnchor} loaded from the JAR rather than from
+     * the tests' own class path. Every call gives a different class.
+     */
+    static Class<?> anchor(File jar) throws IOException, ClassNotFoundException {
+        URLClassLoader loader = new URLClassLoader(new URL[]{jar.toURI().toURL()}, ClassLoader.getPlatformClassLoader());
+        return loader.loadClass(JarAnchor.class.getName());
+    }
+
+    private static byte[] anchorClass() throws IOException {
+        try (InputStream in = JarAnchor.class.getResourceAsStream(JarAnchor.class.getSimpleName() + ".class")) {
+            return in.readAllBytes();
+        }
+    }
+}
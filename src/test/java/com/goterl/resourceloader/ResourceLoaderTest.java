@@ -1,19 +1,48 @@
 package com.goterl.resourceloader;
 
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.net.MalformedURLException;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.ReadOnlyFileSystemException;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
 import org.testng.annotations.AfterTest;
 import org.testng.annotations.BeforeTest;
 import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 public class ResourceLoaderTest {
     File tmpDir;
@@ -93,6 +122,37 @@ public class ResourceLoaderTest {
         assertThat(result).isEqualTo(isJar);
     }
 
+    @Test
+    public void theLocationOfAClassIsRemembered() {
+        ResourceLocation location = ResourceLocation.of(ResourceLoaderTest.class);
+
+        assertThat(location.kind).isEqualTo(ResourceLocation.Kind.DIRECTORY);
+        assertThat(ResourceLocation.of(ResourceLoaderTest.class)).isSameAs(location);
+        assertThat(ResourceLoader.getThePathToTheJarWeAreIn(ResourceLoaderTest.class)).isEqualTo(location.url);
+    }
+
+    @DataProvider(name = "nestedUrlTestData")
+    public static Object[][] nestedUrls() throws URISyntaxException {
+        String jar = ResourceLoaderTest.class.getResource("/jarinjar.jar").toURI().getRawPath();
+        String jarWithSpaces = ResourceLoaderTest.class.getResource("/jar with spaces.jar").toURI().getRawPath();
+        return new Object[][] {
+                { "nested:" + jar + "/!lazysodium.jar", List.of("lazysodium.jar"), "/LazySodium.class" },
+                { "jar:nested:" + jar + "/!lazysodium.jar!/", List.of("lazysodium.jar"), "/LazySodium.class" },
+                { "nested:" + jar + "/!linux64/", List.of(), "/linux64/LazySodium.class" },
+                { "nested:" + jarWithSpaces, List.of(), "/LazySodium.class" }
+        };
+    }
+
+    @Test(dataProvider = "nestedUrlTestData")
+    public void nestedUrlsAreResolvedWithoutOpeningTheJar(String codeSource, List<String> nestedJars, String pathInJar) {
+        ResourceLocation location = ResourceLocation.locateNested(codeSource, null);
+
+        assertThat(location.kind).isEqualTo(ResourceLocation.Kind.NESTED_URL);
+        assertThat(location.jar).isFile();
+        assertThat(location.nestedJars).isEqualTo(nestedJars);
+        assertThat(location.resolve("LazySodium.class").pathInJar).isEqualTo(pathInJar);
+    }
+
     @DataProvider(name = "nestedExtractTestData")
     public static Object[][] nestedExtractTestData() {
         String jarUrl = ResourceLoaderTest.class.getResource("/jarinjar.jar").toString();
@@ -122,6 +182,344 @@ public class ResourceLoaderTest {
         assertThat(file.exists()).isTrue();
     }
 
+    @Test
+    public void readAllBytesFromTheFileSystem() throws Exception {
+        byte[] bytes = new ResourceLoader().readAllBytes("test1.txt", ResourceLoaderTest.class);
+        assertThat(new String(bytes, StandardCharsets.UTF_8)).isEqualTo("this is a test");
+    }
+
+    @Test
+    public void openStreamFromTheFileSystem() throws Exception {
+        try (InputStream in = new ResourceLoader().openStream("folder/test2.txt", ResourceLoaderTest.class)) {
+            assertThat(in).isNotNull();
+            assertThat(in.readAllBytes()).isNotEmpty();
+        }
+    }
+
+    @Test
+    public void openChannelFromTheFileSystem() throws Exception {
+        try (ReadableByteChannel channel = new ResourceLoader().openChannel("test1.txt", ResourceLoaderTest.class)) {
+            ByteBuffer buffer = ByteBuffer.allocate(64);
+            channel.read(buffer);
+            assertThat(buffer.position()).isEqualTo("this is a test".length());
+        }
+    }
+
+    @DataProvider(name = "jarResources")
+    public static Object[][] jarResources() throws Exception {
+        List<Object[]> resources = new ArrayList<>();
+        for (boolean stored : new boolean[] {true, false}) {
+            Class<?> anchor = Jars.anchor(jarWithANestedJar(stored));
+            resources.add(new Object[] {anchor, "data"});
+            resources.add(new Object[] {anchor, "inner.jar/data"});
+        }
+        return resources.toArray(new Object[0][]);
+    }
+
+    @Test(dataProvider = "jarResources")
+    public void readFromAJar(Class<?> anchor, String directory) throws Exception {
+        ResourceLoader loader = new ResourceLoader();
+        String path = directory + "/a.txt";
+        assertThat(ResourceLocation.of(anchor).isJar()).isTrue();
+
+        try (InputStream in = loader.openStream(path, anchor)) {
+            assertThat(in.readAllBytes()).isEqualTo(JAR_CONTENTS);
+        }
+        assertThat(loader.readAllBytes(path, anchor)).isEqualTo(JAR_CONTENTS);
+        try (ReadableByteChannel channel = loader.openChannel(path, anchor)) {
+            ByteBuffer buffer = ByteBuffer.allocate(64);
+            channel.read(buffer);
+            assertThat(buffer.position()).isEqualTo(JAR_CONTENTS.length);
+        }
+        assertThatThrownBy(() -> loader.openStream(directory + "/missing.txt", anchor))
+                .isInstanceOf(FileNotFoundException.class);
+    }
+
+    @Test(dataProvider = "jarResources")
+    public void inspectAJarWithoutExtracting(Class<?> anchor, String directory) throws Exception {
+        ResourceLoader loader = new ResourceLoader();
+        CRC32 crc = new CRC32();
+        crc.update(JAR_CONTENTS);
+
+        assertThat(loader.exists(directory, anchor)).isTrue();
+        assertThat(loader.exists(directory + "/a.txt", anchor)).isTrue();
+        assertThat(loader.exists(directory + "/sub", anchor)).isTrue();
+        assertThat(loader.exists(directory + "/missing.txt", anchor)).isFalse();
+        assertThat(loader.exists("missing.jar/data/a.txt", anchor)).isFalse();
+
+        assertThat(loader.size(directory + "/a.txt", anchor)).isEqualTo(JAR_CONTENTS.length);
+        assertThat(loader.checksum(directory + "/a.txt", anchor)).isEqualTo(crc.getValue());
+        assertThatThrownBy(() -> loader.size(directory + "/missing.txt", anchor))
+                .isInstanceOf(FileNotFoundException.class);
+
+        assertThat(loader.list(directory, anchor))
+                .containsExactly(directory + "/a.txt", directory + "/sub/b.txt");
+        assertThatThrownBy(() -> loader.list(directory + "/missing", anchor))
+                .isInstanceOf(FileNotFoundException.class);
+    }
+
+    @Test
+    public void mapAResourceFromTheFileSystem() throws Exception {
+        MappedByteBuffer buffer = new ResourceLoader().mapResource("test1.txt", ResourceLoaderTest.class);
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+
+        assertThat(buffer.isReadOnly()).isTrue();
+        assertThat(new String(bytes, StandardCharsets.UTF_8)).isEqualTo("this is a test");
+    }
+
+    @Test
+    public void mapStoredEntriesInPlace() throws Exception {
+        File jar = new File(ResourceLoaderTest.class.getResource("/storedinstored.jar").toURI());
+
+        MappedByteBuffer outer = NestedJarReader.map(jar, List.of(), "data/table.bin");
+        MappedByteBuffer inner = NestedJarReader.map(jar, List.of("inner.jar"), "data/table.bin");
+
+        assertThat(bytes(outer)).isEqualTo(storedTable());
+        assertThat(bytes(inner)).isEqualTo(storedTable());
+        // Compressed entries can't be mapped in place.
+        assertThat(NestedJarReader.map(jar, List.of("inner.jar"), "data/compressed.txt")).isNull();
+    }
+
+    @Test
+    public void mapAResourceFromANestedJar() throws Exception {
+        byte[] fixture = Files.readAllBytes(Paths.get(ResourceLoaderTest.class.getResource("/storedinstored.jar").toURI()));
+        Class<?> anchor = Jars.anchor(Jars.writeJar(Map.of("stored.jar", fixture), true));
+        ResourceLoader loader = new ResourceLoader();
+        AtomicInteger extractions = new AtomicInteger();
+        ResourceLoader.setMetrics(new LoaderMetrics() {
+            @Override
+            public void extracted(String resource, int entries, long bytes) {
+                extractions.incrementAndGet();
+            }
+        });
+        try {
+            MappedByteBuffer table = loader.mapResource("stored.jar/inner.jar/data/table.bin", anchor);
+            loader.mapResource("stored.jar/inner.jar/data/compressed.txt", anchor);
+            MappedByteBuffer compressed = loader.mapResource("stored.jar/inner.jar/data/compressed.txt", anchor);
+
+            assertThat(bytes(table)).isEqualTo(storedTable());
+            assertThat(new String(bytes(compressed), StandardCharsets.UTF_8)).isEqualTo("this one is deflated\n".repeat(20));
+            assertThat(extractions).hasValue(1);
+        } finally {
+            ResourceLoader.setMetrics(null);
+        }
+    }
+
+    @Test
+    public void concurrentMapsExtractOnce() throws Exception {
+        byte[] fixture = Files.readAllBytes(Paths.get(ResourceLoaderTest.class.getResource("/storedinstored.jar").toURI()));
+        Class<?> anchor = Jars.anchor(Jars.writeJar(Map.of("stored.jar", fixture), true));
+        ResourceLoader loader = new ResourceLoader();
+        AtomicInteger extractions = new AtomicInteger();
+        ResourceLoader.setMetrics(new LoaderMetrics() {
+            @Override
+            public void extracted(String resource, int entries, long bytes) {
+                extractions.incrementAndGet();
+            }
+        });
+        ExecutorService service = Executors.newFixedThreadPool(8);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<MappedByteBuffer>> maps = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                maps.add(service.submit(() -> {
+                    start.await();
+                    return loader.mapResource("stored.jar/inner.jar/data/compressed.txt", anchor);
+                }));
+            }
+            start.countDown();
+            for (Future<MappedByteBuffer> map : maps) {
+                assertThat(new String(bytes(map.get(30, TimeUnit.SECONDS)), StandardCharsets.UTF_8))
+                        .isEqualTo("this one is deflated\n".repeat(20));
+            }
+            assertThat(extractions).hasValue(1);
+        } finally {
+            service.shutdown();
+            ResourceLoader.setMetrics(null);
+        }
+    }
+
+    @Test(expectedExceptions = FileNotFoundException.class)
+    public void openStreamOnAMissingFile() throws Exception {
+        new ResourceLoader().openStream("does/not/exist.txt", ResourceLoaderTest.class);
+    }
+
+    @Test
+    public void existsWithoutExtracting() throws Exception {
+        ResourceLoader loader = new ResourceLoader();
+        assertThat(loader.exists("test1.txt", ResourceLoaderTest.class)).isTrue();
+        assertThat(loader.exists("folder2", ResourceLoaderTest.class)).isTrue();
+        assertThat(loader.exists("does/not/exist.txt", ResourceLoaderTest.class)).isFalse();
+    }
+
+    @Test
+    public void sizeAndChecksumWithoutExtracting() throws Exception {
+        ResourceLoader loader = new ResourceLoader();
+        CRC32 crc = new CRC32();
+        crc.update("this is a test".getBytes(StandardCharsets.UTF_8));
+
+        assertThat(loader.size("test1.txt", ResourceLoaderTest.class)).isEqualTo(14);
+        assertThat(loader.checksum("test1.txt", ResourceLoaderTest.class)).isEqualTo(crc.getValue());
+    }
+
+    @Test
+    public void listADirectory() throws Exception {
+        List<String> files = new ResourceLoader().list("folder2", ResourceLoaderTest.class);
+
+        assertThat(files).containsExactly(
+                "folder2/test1.txt",
+                "folder2/test2.txt",
+                "folder2/test3.txt",
+                "folder2/test4.txt"
+        );
+    }
+
+    @Test
+    public void loadAsPathFromTheFileSystem() throws Exception {
+        try (ResourcePath path = new ResourceLoader().loadAsPath("folder2", ResourceLoaderTest.class)) {
+            assertThat(path.isInArchive()).isFalse();
+            assertThat(path.getPath()).isDirectory();
+            assertThat(path.getPath().resolve("test1.txt")).exists();
+        }
+    }
+
+    @Test(dataProvider = "jarResources")
+    public void loadAsPathFromAJar(Class<?> anchor, String directory) throws Exception {
+        ResourceLoader loader = new ResourceLoader();
+        ResourcePath file = loader.loadAsPath(directory + "/a.txt", anchor);
+        try (ResourcePath dir = loader.loadAsPath(directory, anchor)) {
+            assertThat(dir.isInArchive()).isTrue();
+            assertThat(dir.getPath()).isDirectory();
+            assertThat(Files.readAllBytes(dir.getPath().resolve("sub/b.txt")))
+                    .isEqualTo("b".getBytes(StandardCharsets.UTF_8));
+            try (Stream<Path> walk = Files.walk(dir.getPath())) {
+                assertThat(walk.filter(Files::isRegularFile).map(path -> dir.getPath().relativize(path).toString()))
+                        .containsExactlyInAnyOrder("a.txt", "sub/b.txt");
+            }
+            // Writes must not end up in the JAR.
+            assertThat(dir.getPath().getFileSystem().isReadOnly()).isTrue();
+            assertThatThrownBy(() -> Files.write(dir.getPath().resolve("sub/b.txt"), new byte[]{1}))
+                    .isInstanceOf(ReadOnlyFileSystemException.class);
+            assertThatThrownBy(() -> Files.write(dir.getPath().resolve("new.txt"), new byte[]{1}))
+                    .isInstanceOf(ReadOnlyFileSystemException.class);
+        }
+
+        // Both paths share one file system, which stays open until both are closed.
+        assertThat(file.isInArchive()).isTrue();
+        assertThat(Files.readAllBytes(file.getPath())).isEqualTo(JAR_CONTENTS);
+        file.close();
+        assertThat(file.isOpen()).isFalse();
+        assertThatThrownBy(file::getPath).isInstanceOf(IllegalStateException.class);
+
+        assertThatThrownBy(() -> loader.loadAsPath(directory + "/missing.txt", anchor))
+                .isInstanceOf(FileNotFoundException.class);
+    }
+
+    @Test
+    public void zipFileSystemsAreSharedUntilReleased() throws Exception {
+        File jar = new File(ResourceLoaderTest.class.getResource("/jarinjar.jar").toURI());
+        ZipFileSystems.Shared first = ZipFileSystems.open(jar, List.of("lazysodium.jar"));
+        ZipFileSystems.Shared second = ZipFileSystems.open(jar, List.of("lazysodium.jar"));
+
+        assertThat(second).isSameAs(first);
+        assertThat(first.fileSystem.getPath("/mac/libsodium.dylib")).exists();
+
+        first.release();
+        assertThat(second.fileSystem.isOpen()).isTrue();
+        second.release();
+        assertThat(second.fileSystem.isOpen()).isFalse();
+    }
+
+    @Test
+    public void tempDirectoriesShareOneRootForTheProcess() throws Exception {
+        File first = ResourceLoader.createMainTempDirectory();
+        File second = ResourceLoader.createMainTempDirectory();
+
+        assertThat(first.getParentFile()).isEqualTo(second.getParentFile());
+        assertThat(first.getParentFile().getName())
+                .startsWith("resource-loader-" + ProcessHandle.current().pid() + "-");
+    }
+
+    @Test
+    public void rootsLeftByOtherProcessesAreDeleted() throws Exception {
+        Path tmp = Files.createTempDirectory(tmpDir.toPath(), "reap");
+        Path stale = Files.createDirectories(tmp.resolve("resource-loader-999999999999-0-1/resource-loader2"));
+        Files.write(stale.resolve("lib.so"), new byte[] {1, 2, 3});
+        Path live = Files.createDirectories(
+                tmp.resolve("resource-loader-" + ProcessHandle.current().pid() + "-0-1"));
+        // Too new to be deleted, even though its process has gone.
+        Path recent = Files.createDirectories(tmp.resolve("resource-loader-999999999999-0-2"));
+        // The PIDs of these can't be seen, so their locks decide.
+        Path unlocked = Files.createDirectories(tmp.resolve("resource-loader-1-0-3"));
+        Files.createFile(unlocked.resolve(".lock"));
+        Path locked = Files.createDirectories(tmp.resolve("resource-loader-999999999999-0-4"));
+        Files.createFile(locked.resolve(".lock"));
+
+        try (FileChannel channel = FileChannel.open(locked.resolve(".lock"), StandardOpenOption.WRITE);
+             FileLock lock = channel.lock()) {
+            for (Path root : Arrays.asList(stale.getParent(), live, unlocked, locked)) {
+                makeOld(root);
+            }
+
+            TempDirectories.reap(tmp);
+
+            assertThat(lock.isValid()).isTrue();
+        }
+
+        assertThat(stale.getParent()).doesNotExist();
+        assertThat(unlocked).doesNotExist();
+        assertThat(live).exists();
+        assertThat(recent).exists();
+        assertThat(locked).exists();
+    }
+
+    @Test
+    public void theRootIsLockedWhileInUse() throws Exception {
+        Path root = TempDirectories.root();
+
+        try (FileChannel channel = FileChannel.open(root.resolve(".lock"), StandardOpenOption.WRITE)) {
+            assertThatThrownBy(channel::tryLock).isInstanceOf(OverlappingFileLockException.class);
+        }
+    }
+
+    private static void makeOld(Path root) throws IOException {
+        Instant old = Instant.now().minus(TempDirectories.MIN_AGE).minusSeconds(60);
+        Files.setLastModifiedTime(root, FileTime.from(old));
+    }
+
+    /**
+     * @return What {@code data/table.bin} holds in {@code storedinstored.jar}.
+     */
+    private static byte[] storedTable() {
+        byte[] table = new byte[8192];
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (byte) (i % 251);
+        }
+        return table;
+    }
+
+    private static byte[] bytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    private static final byte[] JAR_CONTENTS = "read me from a jar".getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * @return A JAR with {@code data/a.txt} and {@code data/sub/b.txt} in it,
+     * and the same files again in {@code inner.jar} inside it.
+     */
+    private static File jarWithANestedJar(boolean stored) throws IOException {
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        entries.put("data/a.txt", JAR_CONTENTS);
+        entries.put("data/sub/b.txt", "b".getBytes(StandardCharsets.UTF_8));
+        byte[] inner = Files.readAllBytes(Jars.writeJar(entries, stored).toPath());
+        entries.put("inner.jar", inner);
+        return Jars.writeJar(entries, stored);
+    }
+
     private static boolean delete(String path) {
         File filePath = new File(path);
         String[] list = filePath.list();
@@ -12,12 +12,19 @@ import com.sun.jna.Platform;
 import net.jodah.concurrentunit.Waiter;
 import org.testng.annotations.Test;
 
+import java.io.File;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
+import static org.assertj.core.api.Assertions.assertThat;
+
 public class SharedLibraryLoaderTest {
 
     @Test
@@ -53,6 +60,57 @@ public class SharedLibraryLoaderTest {
         waiter.await(2000, 2);
     }
 
+    @Test
+    public void duplicateLoadsWaitForTheFirstOne() throws Exception {
+        SharedLibraryLoader libLoader = SharedLibraryLoader.get();
+        String relativePath = getLibraryPath();
+
+        CompletableFuture<File> first = libLoader.loadAsync(relativePath, Sodium.class);
+        CompletableFuture<File> second = libLoader.loadAsync(relativePath, Sodium.class);
+
+        assertThat(first.get(30, TimeUnit.SECONDS)).isEqualTo(second.get(30, TimeUnit.SECONDS));
+        assertThat(verifyLoaded()).isTrue();
+    }
+
+    @Test
+    public void loadingAgainUsesTheRegistry() {
+        SharedLibraryLoader libLoader = SharedLibraryLoader.get();
+        String relativePath = getLibraryPath();
+
+        File first = libLoader.load(relativePath, Sodium.class);
+        File second = libLoader.load(relativePath, Sodium.class);
+
+        assertThat(second).isEqualTo(first);
+        assertThat(libLoader.getLoadedLibraries())
+                .anySatisfy(library -> {
+                    assertThat(library.getName()).isEqualTo(relativePath);
+                    assertThat(library.getRegisteredClass()).isEqualTo(Sodium.class);
+                    assertThat(library.getPath()).isEqualTo(first.getAbsolutePath());
+                });
+    }
+
+    @Test
+    public void concurrentLoadsRegisterOnce() throws Exception {
+        SharedLibraryLoader libLoader = SharedLibraryLoader.get();
+        String relativePath = getLibraryPath();
+
+        ExecutorService service = Executors.newFixedThreadPool(4);
+        List<Future<File>> loads = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            loads.add(service.submit(() -> libLoader.load(relativePath, Sodium.class)));
+        }
+        service.shutdown();
+        File first = loads.get(0).get(30, TimeUnit.SECONDS);
+        for (Future<File> load : loads) {
+            assertThat(load.get(30, TimeUnit.SECONDS)).isEqualTo(first);
+        }
+
+        assertThat(libLoader.getLoadedLibraries())
+                .filteredOn(library -> library.getName().equals(relativePath))
+                .hasSize(1);
+        assertThat(verifyLoaded()).isTrue();
+    }
+
 
     private boolean verifyLoaded() {
         Sodium sodium = new Sodium();